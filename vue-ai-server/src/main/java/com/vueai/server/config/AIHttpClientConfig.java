@@ -0,0 +1,89 @@
+package com.vueai.server.config;
+
+import com.vueai.server.service.AIProviderTransport;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI提供商调用使用的共享HTTP连接池
+ */
+@Configuration
+public class AIHttpClientConfig {
+
+    @Value("${ai.http.connect-timeout:10000}")
+    private int connectTimeout;
+
+    @Value("${ai.http.connection-request-timeout:5000}")
+    private int connectionRequestTimeout;
+
+    @Value("${ai.http.read-timeout:120000}")
+    private int readTimeout;
+
+    @Value("${ai.http.max-total:200}")
+    private int maxTotal;
+
+    @Value("${ai.http.max-per-route:50}")
+    private int maxPerRoute;
+
+    @Value("${ai.http.keep-alive:30000}")
+    private long keepAlive;
+
+    @Value("${ai.http.idle-evict:60000}")
+    private long idleEvict;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager aiConnectionManager() {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+        manager.setMaxTotal(maxTotal);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        // 复用前校验空闲过久的连接，避免提供商侧已关闭的连接导致请求失败
+        manager.setValidateAfterInactivity(2000);
+        return manager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient aiHttpClient(PoolingHttpClientConnectionManager aiConnectionManager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+        // 服务端未声明Keep-Alive时使用配置的默认保活时间
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+        };
+
+        return HttpClients.custom()
+                .setConnectionManager(aiConnectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleEvict, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean
+    public RestTemplate aiRestTemplate(CloseableHttpClient aiHttpClient) {
+        // 登记每个请求，使对冲中落败的请求可以被中止
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(aiHttpClient) {
+            @Override
+            protected void postProcessHttpRequest(HttpUriRequest request) {
+                AIProviderTransport.onRequest(request);
+            }
+        });
+    }
+}
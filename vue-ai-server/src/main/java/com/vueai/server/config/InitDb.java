@@ -48,6 +48,13 @@ public class InitDb {
                 "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
                 ")");
         
+        // Add version column if not exists (for existing database)，用于项目内容的乐观锁
+        try {
+            jdbcTemplate.execute("ALTER TABLE magic_sys_project ADD COLUMN version INTEGER DEFAULT 0");
+        } catch (Exception e) {
+            // Column might already exist
+        }
+
         // Create magic_sys_project_member table
         jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_project_member (" +
                 "project_id INTEGER," +
@@ -108,6 +115,46 @@ public class InitDb {
         jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ai_config_user_id ON magic_sys_ai_config(user_id)");
         jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ai_config_active ON magic_sys_ai_config(user_id, is_active)");
 
+        // Create magic_sys_ai_config_change table，每个用户最后一次配置变更的序号，用于多节点间失效配置缓存
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_ai_config_change (" +
+                "user_id INTEGER PRIMARY KEY," +
+                "seq INTEGER NOT NULL," +
+                "change_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ai_config_change_seq ON magic_sys_ai_config_change(seq)");
+
+        // Create magic_sys_ai_config_probe table，AI配置的延迟探测结果
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_ai_config_probe (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "config_id INTEGER NOT NULL," +
+                "user_id INTEGER," +
+                "success INTEGER DEFAULT 0," +
+                "ttft_ms REAL," +
+                "tokens_per_sec REAL," +
+                "total_ms REAL," +
+                "result TEXT NOT NULL," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ai_config_probe_config ON magic_sys_ai_config_probe(config_id, id)");
+
+        // Create magic_sys_blob table，项目文件内容按 SHA-256 去重存储
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_blob (" +
+                "hash TEXT PRIMARY KEY," +
+                "content TEXT NOT NULL," +
+                "size INTEGER," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")");
+
+        // Create magic_sys_project_manifest table，项目每个版本的文件清单（文件内容替换为哈希）
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_project_manifest (" +
+                "project_id INTEGER NOT NULL," +
+                "version INTEGER NOT NULL," +
+                "format TEXT NOT NULL," +
+                "manifest TEXT NOT NULL," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (project_id, version)" +
+                ")");
+
         // Create magic_sys_project_commit table for Git-like version control
         jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_project_commit (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
@@ -180,6 +227,33 @@ public class InitDb {
         jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_notification_user_id ON magic_sys_notification(user_id)");
         jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_notification_is_read ON magic_sys_notification(user_id, is_read)");
 
+        // Create magic_sys_ai_response_cache table for persistent AI response cache
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_ai_response_cache (" +
+                "fingerprint TEXT PRIMARY KEY," +
+                "provider TEXT," +
+                "model TEXT," +
+                "content TEXT NOT NULL," +
+                "expire_time INTEGER NOT NULL," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")");
+
+        // Create magic_sys_ai_job table for asynchronous module generation jobs
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS magic_sys_ai_job (" +
+                "id TEXT PRIMARY KEY," +
+                "user_id INTEGER NOT NULL," +
+                "project_id INTEGER," +
+                "requirement TEXT," +
+                "files TEXT," +
+                "status TEXT NOT NULL," +
+                "result TEXT," +
+                "error TEXT," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "start_time TIMESTAMP," +
+                "finish_time TIMESTAMP" +
+                ")");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ai_job_status ON magic_sys_ai_job(status)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ai_job_user_id ON magic_sys_ai_job(user_id)");
+
         // Create default admin user if not exists
         try {
             Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM magic_sys_user WHERE username = 'admin'", Integer.class);
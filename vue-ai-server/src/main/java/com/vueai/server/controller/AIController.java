@@ -6,12 +6,34 @@ import com.vueai.server.dto.SaveAIConfigRequest;
 import com.vueai.server.model.AIConfig;
 import com.vueai.server.service.AIConfigService;
 import com.vueai.server.service.AIGenerateService;
+import com.vueai.server.service.AIGenerationExecutor;
+import com.vueai.server.service.AIProviderTransport;
+import com.vueai.server.service.AIRequestCoalescer;
+import com.vueai.server.service.AIResponseCache;
+import com.vueai.server.service.GenerationJobService;
+import com.vueai.server.service.ModelRouter;
+import com.vueai.server.service.ProjectParseCache;
+import com.vueai.server.service.ProjectStore;
+import com.vueai.server.service.ProviderProbeService;
+import com.vueai.server.service.ProviderRateLimiter;
+import com.vueai.server.service.ProviderResilience;
 import com.vueai.server.service.SmartCodeGeneratorService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/magic/ai")
@@ -27,51 +49,300 @@ public class AIController {
     @Autowired
     private SmartCodeGeneratorService smartCodeGeneratorService;
 
-    // AI代码生成
+    @Autowired
+    private AIProviderTransport aiProviderTransport;
+
+    @Autowired
+    private AIGenerationExecutor aiGenerationExecutor;
+
+    @Autowired
+    private AIResponseCache aiResponseCache;
+
+    @Autowired
+    private AIRequestCoalescer aiRequestCoalescer;
+
+    @Autowired
+    private ProviderRateLimiter providerRateLimiter;
+
+    @Autowired
+    private ProviderResilience providerResilience;
+
+    @Autowired
+    private GenerationJobService generationJobService;
+
+    @Autowired
+    private ProjectParseCache projectParseCache;
+
+    @Autowired
+    private ProviderProbeService providerProbeService;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private ProjectStore projectStore;
+
+    @Value("${ai.stream.timeout:300000}")
+    private long streamTimeout;
+
+    // AI代码生成（在AI生成线程池中异步执行，不占用Tomcat工作线程）
     @PostMapping("/generate")
-    public Map<String, Object> generate(@RequestBody Map<String, Object> body) {
-        try {
-            String prompt = (String) body.get("prompt");
-            String provider = (String) body.get("provider");
-            String model = (String) body.get("model");
-            @SuppressWarnings("unchecked")
-            Map<String, Object> config = (Map<String, Object>) body.get("config");
+    public CompletableFuture<Map<String, Object>> generate(@RequestBody Map<String, Object> body) {
+        String prompt = (String) body.get("prompt");
+        String provider = (String) body.get("provider");
+        String model = (String) body.get("model");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> config = (Map<String, Object>) body.get("config");
+        boolean useCache = !Boolean.TRUE.equals(body.get("noCache"));
+        Integer userId = body.get("userId") != null ? Integer.parseInt(body.get("userId").toString()) : null;
 
+        return aiGenerationExecutor.submit(() -> {
             // 调用AI生成服务
-            Map<String, Object> result = aiGenerateService.generate(provider, model, config, prompt);
+            Map<String, Object> result = aiGenerateService.generate(provider, model, config, prompt, useCache, userId);
             result.put("code", 1);
-
             return result;
-        } catch (Exception e) {
+        }).exceptionally(e -> {
             Map<String, Object> error = new HashMap<>();
             error.put("code", 0);
-            error.put("message", "AI生成失败: " + e.getMessage());
+            error.put("message", "AI生成失败: " + unwrap(e).getMessage());
             return error;
-        }
+        });
     }
 
     // 智能模块生成
     @PostMapping("/generate-module")
-    public Map<String, Object> generateModule(@RequestBody Map<String, Object> body) {
-        try {
+    public CompletableFuture<Map<String, Object>> generateModule(@RequestBody Map<String, Object> body) {
+        return aiGenerationExecutor.submit(() -> {
             Integer projectId = body.get("projectId") != null ? Integer.parseInt(body.get("projectId").toString()) : null;
             String requirement = (String) body.get("requirement");
             Integer userId = Integer.parseInt(body.get("userId").toString());
             @SuppressWarnings("unchecked")
             Map<String, String> files = (Map<String, String>) body.get("files");
             
-            Map<String, Object> result = smartCodeGeneratorService.generateModule(projectId, requirement, userId, files);
+            // mode=edit 时已有文件只返回修改块；speculative=true 或指定 candidates（AI配置ID列表）时多个模型同时生成，采用第一个通过检查的结果；
+            // route=true 时在用户的全部配置中按延迟、错误率和上下文窗口选择一个，未指定时按 ai.router.enabled
+            Map<String, Object> result;
+            if ("edit".equals(body.get("mode"))) {
+                result = smartCodeGeneratorService.editModule(projectId, requirement, userId, files);
+            } else if (Boolean.TRUE.equals(body.get("speculative")) || body.get("candidates") instanceof List) {
+                List<Integer> configIds = new ArrayList<>();
+                if (body.get("candidates") instanceof List) {
+                    for (Object id : (List<?>) body.get("candidates")) {
+                        configIds.add(Integer.parseInt(id.toString()));
+                    }
+                }
+                result = smartCodeGeneratorService.generateModuleSpeculative(projectId, requirement, userId, files, configIds);
+            } else {
+                Boolean route = body.get("route") != null ? Boolean.valueOf(body.get("route").toString()) : null;
+                result = smartCodeGeneratorService.generateModule(projectId, requirement, userId, files, route);
+            }
             result.put("code", 1);
             return result;
-        } catch (Exception e) {
+        }).exceptionally(e -> {
+            Throwable cause = unwrap(e);
             Map<String, Object> error = new HashMap<>();
             error.put("code", 0);
-            error.put("message", "生成失败: " + e.getMessage());
-            e.printStackTrace();
+            error.put("message", "生成失败: " + cause.getMessage());
+            cause.printStackTrace();
             return error;
+        });
+    }
+
+    // 提交异步模块生成任务，立即返回任务ID
+    @PostMapping("/jobs")
+    public Map<String, Object> submitJob(@RequestBody Map<String, Object> body) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Integer projectId = body.get("projectId") != null ? Integer.parseInt(body.get("projectId").toString()) : null;
+            String requirement = (String) body.get("requirement");
+            Integer userId = Integer.parseInt(body.get("userId").toString());
+            @SuppressWarnings("unchecked")
+            Map<String, String> files = (Map<String, String>) body.get("files");
+
+            String jobId = generationJobService.submit(userId, projectId, requirement, files);
+            Map<String, Object> data = new HashMap<>();
+            data.put("jobId", jobId);
+            data.put("status", GenerationJobService.QUEUED);
+            result.put("code", 1);
+            result.put("data", data);
+        } catch (Exception e) {
+            result.put("code", 0);
+            result.put("message", "提交生成任务失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    // 查询用户最近的生成任务
+    @GetMapping("/jobs")
+    public Map<String, Object> getJobs(@RequestParam Integer userId) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 1);
+        result.put("data", generationJobService.getJobsByUser(userId, 20));
+        return result;
+    }
+
+    // 查询生成任务状态
+    @GetMapping("/jobs/{id}")
+    public Map<String, Object> getJob(@PathVariable String id) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> job = generationJobService.getJob(id);
+        if (job == null) {
+            result.put("code", 0);
+            result.put("message", "任务不存在");
+            return result;
+        }
+        result.put("code", 1);
+        result.put("data", job);
+        return result;
+    }
+
+    // 获取生成任务结果，格式与 /generate-module 的返回一致
+    @GetMapping("/jobs/{id}/result")
+    public Map<String, Object> getJobResult(@PathVariable String id) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Map<String, Object> jobResult = generationJobService.getResult(id);
+            if (jobResult == null) {
+                Map<String, Object> job = generationJobService.getJob(id);
+                result.put("code", 0);
+                result.put("message", job == null ? "任务不存在" : "任务尚未成功完成: " + job.get("status"));
+                return result;
+            }
+            jobResult.put("code", 1);
+            return jobResult;
+        } catch (Exception e) {
+            result.put("code", 0);
+            result.put("message", "获取任务结果失败: " + e.getMessage());
+            return result;
+        }
+    }
+
+    // 取消排队中或执行中的生成任务
+    @PostMapping("/jobs/{id}/cancel")
+    public Map<String, Object> cancelJob(@PathVariable String id) {
+        Map<String, Object> result = new HashMap<>();
+        if (generationJobService.cancel(id)) {
+            result.put("code", 1);
+            result.put("message", "任务已取消");
+        } else {
+            result.put("code", 0);
+            result.put("message", "任务不存在或已结束");
+        }
+        return result;
+    }
+
+    private Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    // AI代码生成（流式SSE）：token 事件逐段推送，done 事件返回清理后的完整代码
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter generateStream(@RequestBody Map<String, Object> body) {
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        AtomicBoolean closed = watchClosed(emitter);
+
+        String prompt = (String) body.get("prompt");
+        String provider = (String) body.get("provider");
+        String model = (String) body.get("model");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> config = (Map<String, Object>) body.get("config");
+        boolean useCache = !Boolean.TRUE.equals(body.get("noCache"));
+        Integer userId = body.get("userId") != null ? Integer.parseInt(body.get("userId").toString()) : null;
+
+        dispatchStream(emitter, closed, () -> {
+            try {
+                String content = aiGenerateService.generateStream(provider, model, config, prompt, useCache, userId,
+                    token -> sendEvent(emitter, closed, "token", singletonData("content", token)));
+
+                sendEvent(emitter, closed, "done", singletonData("content", content));
+                emitter.complete();
+            } catch (Exception e) {
+                sendError(emitter, closed, "AI生成失败: " + e.getMessage());
+            }
+        });
+        return emitter;
+    }
+
+    // 智能模块生成（流式SSE）：每个文件块闭合后立即推送 file 事件，done 事件返回与非流式接口一致的结果
+    @PostMapping(value = "/generate-module/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter generateModuleStream(@RequestBody Map<String, Object> body) {
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        AtomicBoolean closed = watchClosed(emitter);
+
+        dispatchStream(emitter, closed, () -> {
+            try {
+                Integer projectId = body.get("projectId") != null ? Integer.parseInt(body.get("projectId").toString()) : null;
+                String requirement = (String) body.get("requirement");
+                Integer userId = Integer.parseInt(body.get("userId").toString());
+                @SuppressWarnings("unchecked")
+                Map<String, String> files = (Map<String, String>) body.get("files");
+                Boolean route = body.get("route") != null ? Boolean.valueOf(body.get("route").toString()) : null;
+
+                Map<String, Object> result = smartCodeGeneratorService.generateModuleStream(projectId, requirement, userId, files, route,
+                    token -> sendEvent(emitter, closed, "token", singletonData("content", token)),
+                    file -> sendEvent(emitter, closed, "file", file));
+                result.put("code", 1);
+
+                sendEvent(emitter, closed, "done", result);
+                emitter.complete();
+            } catch (Exception e) {
+                e.printStackTrace();
+                sendError(emitter, closed, "生成失败: " + e.getMessage());
+            }
+        });
+        return emitter;
+    }
+
+    private void dispatchStream(SseEmitter emitter, AtomicBoolean closed, Runnable task) {
+        try {
+            aiGenerationExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            sendError(emitter, closed, e.getMessage());
+        }
+    }
+
+    private AtomicBoolean watchClosed(SseEmitter emitter) {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        emitter.onCompletion(() -> closed.set(true));
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(e -> closed.set(true));
+        return closed;
+    }
+
+    // 客户端断开后抛出 CancellationException 以中止上游读取
+    private void sendEvent(SseEmitter emitter, AtomicBoolean closed, String name, Object data) {
+        if (closed.get()) {
+            throw new CancellationException("客户端已断开");
+        }
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            closed.set(true);
+            throw new CancellationException("客户端已断开");
+        }
+    }
+
+    private void sendError(SseEmitter emitter, AtomicBoolean closed, String message) {
+        if (closed.get()) {
+            return;
+        }
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", 0);
+        error.put("message", message);
+        try {
+            emitter.send(SseEmitter.event().name("error").data(error, MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
         }
     }
 
+    private Map<String, Object> singletonData(String key, Object value) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(key, value);
+        return data;
+    }
+
     // 获取用户AI配置列表
     @GetMapping("/configs")
     public Map<String, Object> getAIConfigs(@RequestParam Integer userId) {
@@ -160,22 +431,41 @@ public class AIController {
         }
     }
 
-    // 测试AI配置
+    // 测试AI配置：实际请求提供商，测量冷启动与复用连接时的 DNS/连接/TLS/首个token/生成速度/总耗时。
+    // 传 configId 测试已保存的配置，或传 config 测试未保存的配置；有ID的配置会保存探测结果
+    @SuppressWarnings("unchecked")
     @PostMapping("/configs/test")
     public Map<String, Object> testAIConfig(@RequestBody Map<String, Object> body) {
         try {
             ObjectMapper mapper = new ObjectMapper();
-            AIConfig aiConfig = mapper.convertValue(body.get("config"), AIConfig.class);
+            AIConfig aiConfig;
+            if (body.get("configId") != null) {
+                aiConfig = aiConfigService.getAIConfig(Integer.parseInt(body.get("configId").toString()));
+                if (aiConfig == null) {
+                    throw new RuntimeException("AI配置不存在");
+                }
+            } else {
+                Map<String, Object> configBody = new HashMap<>((Map<String, Object>) body.get("config"));
+                // config 字段可以是JSON字符串或对象
+                Object settings = configBody.get("config");
+                if (settings != null && !(settings instanceof String)) {
+                    configBody.put("config", mapper.writeValueAsString(settings));
+                }
+                aiConfig = mapper.convertValue(configBody, AIConfig.class);
+            }
+            Map<String, Object> settings = aiConfig.getConfig() != null ? mapper.readValue(aiConfig.getConfig(), Map.class) : new HashMap<>();
             String testPrompt = (String) body.getOrDefault("testPrompt", "Hello, write a simple Vue component");
-            
-            // TODO: 实际测试配置是否有效
+            int coldRuns = body.get("coldRuns") != null ? Integer.parseInt(body.get("coldRuns").toString()) : -1;
+            int warmRuns = body.get("warmRuns") != null ? Integer.parseInt(body.get("warmRuns").toString()) : -1;
+
+            Map<String, Object> probe = providerProbeService.probe(aiConfig, settings, testPrompt, coldRuns, warmRuns);
+            boolean success = Boolean.TRUE.equals(probe.get("success"));
             Map<String, Object> result = new HashMap<>();
-            result.put("code", 1);
-            result.put("message", "AI config test successful");
-            Map<String, Object> data = new HashMap<>();
-            data.put("testResult", "Test completed successfully");
-            data.put("responseTime", "200ms");
-            data.put("model", aiConfig.getModelId());
+            result.put("code", success ? 1 : 0);
+            result.put("message", success ? "AI config test successful" : "AI config test failed: " + probe.get("error"));
+            Map<String, Object> data = new HashMap<>(probe);
+            data.put("testResult", success ? "Test completed successfully" : probe.get("error"));
+            data.put("responseTime", probe.get("totalMs") != null ? Math.round(((Number) probe.get("totalMs")).doubleValue()) + "ms" : null);
             result.put("data", data);
             return result;
         } catch (Exception e) {
@@ -186,6 +476,22 @@ public class AIController {
         }
     }
 
+    // AI配置的探测历史
+    @GetMapping("/configs/{id}/probes")
+    public Map<String, Object> getProbeHistory(@PathVariable Integer id) {
+        try {
+            Map<String, Object> result = new HashMap<>();
+            result.put("code", 1);
+            result.put("data", providerProbeService.getHistory(id));
+            return result;
+        } catch (Exception e) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("code", 0);
+            result.put("message", "Failed to get probe history: " + e.getMessage());
+            return result;
+        }
+    }
+
     // 获取AI提供商信息
     @GetMapping("/providers")
     public Map<String, Object> getAIProviders() {
@@ -194,4 +500,26 @@ public class AIController {
         result.put("data", aiConfigService.getAIProviders());
         return result;
     }
+
+    // 获取AI调用运行统计
+    @GetMapping("/stats")
+    public Map<String, Object> getStats() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("transport", aiProviderTransport.getPoolStats());
+        data.put("generation", aiGenerationExecutor.getStats());
+        data.put("cache", aiResponseCache.getStats());
+        data.put("coalescing", aiRequestCoalescer.getStats());
+        data.put("rateLimit", providerRateLimiter.getStats());
+        data.put("resilience", providerResilience.getStats());
+        data.put("jobs", generationJobService.getStats());
+        data.put("projectCache", projectParseCache.getStats());
+        data.put("speculative", smartCodeGeneratorService.getSpeculativeStats());
+        data.put("configCache", aiConfigService.getCacheStats());
+        data.put("router", modelRouter.getStats());
+        data.put("projectStore", projectStore.getStats());
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 1);
+        result.put("data", data);
+        return result;
+    }
 }
@@ -1,5 +1,6 @@
 package com.vueai.server.controller;
 
+import com.vueai.server.service.ProjectStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
@@ -17,6 +18,9 @@ public class GitController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ProjectStore projectStore;
+
     // 生成提交hash
     private String generateCommitHash() {
         try {
@@ -311,9 +315,7 @@ public class GitController {
             String content = (String) commits.get(0).get("content");
 
             // 更新项目当前内容
-            jdbcTemplate.update(
-                "UPDATE magic_sys_project SET content = ? WHERE id = ?",
-                content, projectId);
+            projectStore.save(projectId, content, null);
 
             result.put("code", 200);
             result.put("message", "Checkout successful");
@@ -394,7 +396,8 @@ public class GitController {
             }
 
             // 获取项目内容
-            String content = (String) projects.get(0).get("content");
+            ProjectStore.Snapshot snapshot = projectStore.read(projectId);
+            String content = snapshot != null ? snapshot.getContent() : null;
             String projectName = (String) projects.get(0).get("name");
             Integer ownerId = (Integer) projects.get(0).get("owner_id");
 
@@ -1,5 +1,6 @@
 package com.vueai.server.controller;
 
+import com.vueai.server.service.ProjectStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
@@ -17,6 +18,9 @@ public class MarketController {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private ProjectStore projectStore;
+
     /**
      * 获取应用列表（增强搜索）
      */
@@ -1256,12 +1260,13 @@ public class MarketController {
             // 创建项目
             String content = (String) template.get("content");
             jdbcTemplate.update(
-                "INSERT INTO magic_sys_project (name, description, owner_id, content, create_time, update_time) " +
-                "VALUES (?, ?, ?, ?, datetime('now'), datetime('now'))",
-                projectName, template.get("description"), userId, content
+                "INSERT INTO magic_sys_project (name, description, owner_id, create_time, update_time) " +
+                "VALUES (?, ?, ?, datetime('now'), datetime('now'))",
+                projectName, template.get("description"), userId
             );
             
             Integer projectId = jdbcTemplate.queryForObject("SELECT last_insert_rowid()", Integer.class);
+            projectStore.save(projectId, content, null);
             
             // 增加模板使用次数
             try {
@@ -0,0 +1,96 @@
+package com.vueai.server.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 内置的 OpenAI 兼容模拟接口，用于离线测试配置探测与生成流程。
+ * 仅在 ai.mock.enabled=true 时启用，配置 custom 提供商的 baseUrl 为 http://host:port/magic/ai/mock/v1/chat/completions 即可使用
+ */
+@RestController
+@RequestMapping("/magic/ai/mock")
+@ConditionalOnProperty(name = "ai.mock.enabled", havingValue = "true")
+public class MockProviderController {
+
+    private static final String CONTENT = "<file path=\"components/HelloWorld.vue\">\n" +
+            "<template>\n  <div class=\"hello\">{{ message }}</div>\n</template>\n\n" +
+            "<script setup>\nimport { ref } from 'vue'\n\nconst message = ref('Hello World')\n</script>\n" +
+            "</file>";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 首个token前的延迟（毫秒）
+    @Value("${ai.mock.first-token-delay:200}")
+    private long firstTokenDelay;
+
+    // 之后每个token的间隔（毫秒）
+    @Value("${ai.mock.token-delay:10}")
+    private long tokenDelay;
+
+    @PostMapping("/v1/chat/completions")
+    public ResponseEntity<StreamingResponseBody> chatCompletions(@RequestBody Map<String, Object> body) throws Exception {
+        String model = body.get("model") != null ? body.get("model").toString() : "mock";
+        if (!Boolean.TRUE.equals(body.get("stream"))) {
+            Thread.sleep(firstTokenDelay + tokenDelay * tokens().size());
+            Map<String, Object> message = new HashMap<>();
+            message.put("role", "assistant");
+            message.put("content", CONTENT);
+            Map<String, Object> choice = new HashMap<>();
+            choice.put("index", 0);
+            choice.put("message", message);
+            choice.put("finish_reason", "stop");
+            Map<String, Object> response = new HashMap<>();
+            response.put("id", "chatcmpl-mock");
+            response.put("object", "chat.completion");
+            response.put("model", model);
+            response.put("choices", Collections.singletonList(choice));
+            byte[] json = objectMapper.writeValueAsBytes(response);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(out -> out.write(json));
+        }
+
+        StreamingResponseBody stream = out -> {
+            try {
+                Thread.sleep(firstTokenDelay);
+                for (String token : tokens()) {
+                    Map<String, Object> delta = new HashMap<>();
+                    delta.put("content", token);
+                    Map<String, Object> choice = new HashMap<>();
+                    choice.put("index", 0);
+                    choice.put("delta", delta);
+                    Map<String, Object> chunk = new HashMap<>();
+                    chunk.put("id", "chatcmpl-mock");
+                    chunk.put("object", "chat.completion.chunk");
+                    chunk.put("model", model);
+                    chunk.put("choices", Collections.singletonList(choice));
+                    out.write(("data: " + objectMapper.writeValueAsString(chunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    if (tokenDelay > 0) Thread.sleep(tokenDelay);
+                }
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(stream);
+    }
+
+    // 按约4个字符切分为token
+    private static List<String> tokens() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < CONTENT.length(); i += 4) {
+            tokens.add(CONTENT.substring(i, Math.min(CONTENT.length(), i + 4)));
+        }
+        return tokens;
+    }
+}
@@ -1,8 +1,11 @@
 package com.vueai.server.controller;
 
+import com.vueai.server.service.ProjectStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
 import java.util.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -17,6 +20,9 @@ public class ProjectController {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private ProjectStore projectStore;
+
     @GetMapping("/list")
     public Map<String, Object> list(@RequestParam Integer userId) {
         Map<String, Object> result = new HashMap<>();
@@ -40,8 +46,15 @@ public class ProjectController {
                 result.put("code", 404);
                 result.put("message", "Project not found");
             } else {
+                // 内容按文件清单拼装，返回格式不变
+                Map<String, Object> project = projects.get(0);
+                ProjectStore.Snapshot snapshot = projectStore.read(id);
+                if (snapshot != null) {
+                    project.put("content", snapshot.getContent());
+                    project.put("version", snapshot.getVersion());
+                }
                 result.put("code", 200);
-                result.put("data", projects.get(0));
+                result.put("data", project);
             }
         } catch (Exception e) {
             result.put("code", 500);
@@ -50,8 +63,13 @@ public class ProjectController {
         return result;
     }
 
+    /**
+     * 保存整个项目；更新时带 If-Match 请求头或 version 字段则只在版本一致时保存
+     */
     @PostMapping("/save")
-    public Map<String, Object> save(@RequestBody Map<String, Object> body) {
+    public Map<String, Object> save(@RequestBody Map<String, Object> body,
+                                    @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                    HttpServletResponse response) {
         Map<String, Object> result = new HashMap<>();
         try {
             Integer id = body.get("id") != null ? Integer.parseInt(body.get("id").toString()) : null;
@@ -61,10 +79,11 @@ public class ProjectController {
             String content = objectMapper.writeValueAsString(body.get("content"));
 
             if (id == null) {
-                jdbcTemplate.update("INSERT INTO magic_sys_project (name, description, owner_id, content) VALUES (?, ?, ?, ?)",
-                        name, description, ownerId, content);
+                jdbcTemplate.update("INSERT INTO magic_sys_project (name, description, owner_id) VALUES (?, ?, ?)",
+                        name, description, ownerId);
                 // 获取生成的ID
                 Integer generatedId = jdbcTemplate.queryForObject("SELECT last_insert_rowid()", Integer.class);
+                projectStore.save(generatedId, content, null);
                 result.put("code", 200);
                 result.put("message", "Saved successfully");
                 Map<String, Object> data = new HashMap<String, Object>();
@@ -72,15 +91,25 @@ public class ProjectController {
                 data.put("name", name);
                 result.put("data", data);
             } else {
-                jdbcTemplate.update("UPDATE magic_sys_project SET name = ?, description = ?, content = ? WHERE id = ?",
-                        name, description, content, id);
+                Integer expectedVersion = expectedVersion(ifMatch, body.get("version"));
+                int version = projectStore.save(id, content, expectedVersion);
+                if (version < 0) {
+                    return conflict(id);
+                }
+                jdbcTemplate.update("UPDATE magic_sys_project SET name = ?, description = ? WHERE id = ?",
+                        name, description, id);
+                response.setHeader("ETag", "\"" + version + "\"");
                 result.put("code", 200);
                 result.put("message", "Updated successfully");
                 Map<String, Object> data = new HashMap<String, Object>();
                 data.put("id", id);
                 data.put("name", name);
+                data.put("version", version);
                 result.put("data", data);
             }
+        } catch (IllegalArgumentException e) {
+            result.put("code", 400);
+            result.put("message", e.getMessage());
         } catch (Exception e) {
             result.put("code", 500);
             result.put("message", e.getMessage());
@@ -94,6 +123,7 @@ public class ProjectController {
         Map<String, Object> result = new HashMap<>();
         try {
             jdbcTemplate.update("DELETE FROM magic_sys_project WHERE id = ?", id);
+            projectStore.delete(id);
             result.put("code", 200);
             result.put("message", "Deleted successfully");
         } catch (Exception e) {
@@ -104,6 +134,175 @@ public class ProjectController {
         return result;
     }
 
+    /**
+     * 当前版本的文件清单（路径、哈希、大小），客户端可据此只获取变化的文件
+     */
+    @GetMapping("/{id}/manifest")
+    public Map<String, Object> manifest(@PathVariable Integer id) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Map<String, Object> manifest = projectStore.getManifest(id);
+            if (manifest == null) {
+                result.put("code", 404);
+                result.put("message", "Project not found");
+            } else {
+                result.put("code", 200);
+                result.put("data", manifest);
+            }
+        } catch (Exception e) {
+            result.put("code", 500);
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 按路径读取单个文件，或按 hash 读取清单中的文件内容
+     */
+    @GetMapping("/{id}/file")
+    public Map<String, Object> file(@PathVariable Integer id, @RequestParam(required = false) String path,
+                                    @RequestParam(required = false) String hash) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            String content = hash != null ? projectStore.readBlob(hash) : path != null ? projectStore.readFile(id, path) : null;
+            if (content == null) {
+                result.put("code", 404);
+                result.put("message", "File not found");
+            } else {
+                Map<String, Object> data = new HashMap<>();
+                data.put("path", path);
+                data.put("hash", hash);
+                data.put("content", content);
+                result.put("code", 200);
+                result.put("data", data);
+            }
+        } catch (Exception e) {
+            result.put("code", 500);
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 批量修改文件，整批要么全部生效要么都不生效：
+     * {"changes": [{"op": "upsert", "path": "src/App.vue", "content": "..."}, {"op": "rename", "path": "a.js", "to": "b.js"}, {"op": "delete", "path": "old"}]}。
+     * 带 If-Match 请求头（或 version 字段）时只在项目版本一致时保存，否则返回 409 和当前版本
+     */
+    @PatchMapping("/{id}/files")
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> patchFiles(@PathVariable Integer id, @RequestBody Map<String, Object> body,
+                                          @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                          HttpServletResponse response) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            List<Map<String, Object>> changes = (List<Map<String, Object>>) body.get("changes");
+            if (changes == null || changes.isEmpty()) {
+                result.put("code", 400);
+                result.put("message", "Missing changes");
+                return result;
+            }
+            List<ProjectStore.FileChange> fileChanges = new ArrayList<>();
+            for (Map<String, Object> change : changes) {
+                fileChanges.add(ProjectStore.FileChange.of(change));
+            }
+            return applyChanges(id, fileChanges, expectedVersion(ifMatch, body.get("version")), response);
+        } catch (IllegalArgumentException e) {
+            result.put("code", 400);
+            result.put("message", e.getMessage());
+        } catch (Exception e) {
+            result.put("code", 500);
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    // 新增或更新单个文件：{"path": ..., "content": ...}
+    @PutMapping("/{id}/files")
+    public Map<String, Object> putFile(@PathVariable Integer id, @RequestBody Map<String, Object> body,
+                                       @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                       HttpServletResponse response) {
+        Map<String, Object> change = new HashMap<>(body);
+        change.put("op", ProjectStore.FileChange.UPSERT);
+        return patchFiles(id, Collections.singletonMap("changes", Collections.singletonList(change)), ifMatch, response);
+    }
+
+    // 重命名或移动文件/目录：{"from": ..., "to": ...}
+    @PostMapping("/{id}/files/rename")
+    public Map<String, Object> renameFile(@PathVariable Integer id, @RequestBody Map<String, Object> body,
+                                          @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                          HttpServletResponse response) {
+        Map<String, Object> change = new HashMap<>(body);
+        change.put("op", ProjectStore.FileChange.RENAME);
+        return patchFiles(id, Collections.singletonMap("changes", Collections.singletonList(change)), ifMatch, response);
+    }
+
+    // 删除文件或目录
+    @DeleteMapping("/{id}/files")
+    public Map<String, Object> deleteFile(@PathVariable Integer id, @RequestParam String path,
+                                          @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                          HttpServletResponse response) {
+        Map<String, Object> change = new HashMap<>();
+        change.put("op", ProjectStore.FileChange.DELETE);
+        change.put("path", path);
+        return patchFiles(id, Collections.singletonMap("changes", Collections.singletonList(change)), ifMatch, response);
+    }
+
+    private Map<String, Object> applyChanges(Integer id, List<ProjectStore.FileChange> changes, Integer expectedVersion,
+                                             HttpServletResponse response) throws Exception {
+        Map<String, Object> result = new HashMap<>();
+        Integer version = projectStore.applyChanges(id, changes, expectedVersion);
+        if (version == null) {
+            result.put("code", 404);
+            result.put("message", "Project not found");
+            return result;
+        }
+        if (version < 0) {
+            return conflict(id);
+        }
+        response.setHeader("ETag", "\"" + version + "\"");
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        data.put("version", version);
+        result.put("code", 200);
+        result.put("message", "Saved successfully");
+        result.put("data", data);
+        return result;
+    }
+
+    // 版本冲突：返回当前版本，由客户端重新获取后合并；项目不存在（或已被删除）时返回 404
+    private Map<String, Object> conflict(Integer id) {
+        Map<String, Object> result = new HashMap<>();
+        Integer version = projectStore.getVersion(id);
+        if (version == null) {
+            result.put("code", 404);
+            result.put("message", "Project not found");
+            return result;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        data.put("version", version);
+        result.put("code", 409);
+        result.put("message", "Project has been modified, please reload");
+        result.put("data", data);
+        return result;
+    }
+
+    // If-Match: "12" / W/"12" / 12，"*" 或未提供时不校验
+    private static Integer expectedVersion(String ifMatch, Object version) {
+        if (ifMatch != null && !ifMatch.trim().isEmpty()) {
+            String value = ifMatch.trim();
+            if ("*".equals(value)) return null;
+            if (value.startsWith("W/")) value = value.substring(2);
+            value = value.replace("\"", "");
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid If-Match: " + ifMatch);
+            }
+        }
+        return version != null ? Integer.parseInt(version.toString()) : null;
+    }
+
     @PutMapping("/{id}/rename")
     public Map<String, Object> rename(@PathVariable Integer id, @RequestBody Map<String, Object> body) {
         Map<String, Object> result = new HashMap<>();
@@ -0,0 +1,330 @@
+package com.vueai.server.model;
+
+import com.fasterxml.jackson.annotation.*;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 项目文件树：与 magic_sys_project.content 的树形JSON结构一一对应，
+ * 额外维护 完整路径 -> 节点 的索引，按路径查找为O(1)，新增/更新文件为O(目录深度)
+ */
+public class ProjectTree {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<Node> roots;
+    // 完整路径 -> 节点；同一目录下重名时保留第一个
+    private final Map<String, Node> index = new HashMap<>();
+
+    private ProjectTree(List<Node> roots) {
+        this.roots = roots;
+        index(roots, "");
+    }
+
+    public static ProjectTree empty() {
+        return new ProjectTree(new ArrayList<>());
+    }
+
+    /**
+     * 解析项目内容JSON：树形列表，或 路径 -> 内容 的 flat map
+     */
+    public static ProjectTree parse(String json) throws Exception {
+        if (json == null || json.trim().isEmpty()) {
+            return empty();
+        }
+        if (json.trim().startsWith("{")) {
+            return fromFlatMap(objectMapper.readValue(json, new TypeReference<LinkedHashMap<String, String>>(){}));
+        }
+        return new ProjectTree(objectMapper.readValue(json, new TypeReference<List<Node>>(){}));
+    }
+
+    /**
+     * 从JSON字符串、flat map 或已解析的树形列表构建
+     */
+    @SuppressWarnings("unchecked")
+    public static ProjectTree of(Object contentObj) throws Exception {
+        if (contentObj instanceof String) {
+            return parse((String) contentObj);
+        }
+        if (contentObj instanceof Map) {
+            return fromFlatMap((Map<String, String>) contentObj);
+        }
+        if (contentObj instanceof List) {
+            return new ProjectTree(objectMapper.convertValue(contentObj, new TypeReference<List<Node>>(){}));
+        }
+        throw new IllegalArgumentException("不支持的项目内容格式");
+    }
+
+    public static ProjectTree fromFlatMap(Map<String, String> files) {
+        ProjectTree tree = empty();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            tree.putFile(file.getKey(), file.getValue());
+        }
+        return tree;
+    }
+
+    private void index(List<Node> nodes, String prefix) {
+        for (Node node : nodes) {
+            String path = prefix + node.name;
+            index.putIfAbsent(path, node);
+            if (node.children != null) {
+                index(node.children, path + "/");
+            }
+        }
+    }
+
+    public Node get(String path) {
+        return index.get(path);
+    }
+
+    // 文件内容，不存在或是目录时返回null
+    public String getContent(String path) {
+        Node node = index.get(path);
+        return node != null && !node.isFolder() ? node.content : null;
+    }
+
+    /**
+     * 新增或更新文件，缺少的上级目录会一并创建
+     */
+    public void putFile(String path, String content) {
+        Node node = index.get(path);
+        if (node != null) {
+            node.content = content;
+            return;
+        }
+        int slash = path.lastIndexOf('/');
+        List<Node> siblings = slash < 0 ? roots : folder(path.substring(0, slash)).children;
+        node = new Node(path.substring(slash + 1), "file");
+        node.content = content;
+        siblings.add(node);
+        index.put(path, node);
+    }
+
+    // 获取目录节点，不存在时逐级创建
+    private Node folder(String path) {
+        Node node = index.get(path);
+        if (node == null) {
+            int slash = path.lastIndexOf('/');
+            List<Node> siblings = slash < 0 ? roots : folder(path.substring(0, slash)).children;
+            node = new Node(path.substring(slash + 1), "folder");
+            siblings.add(node);
+            index.put(path, node);
+        }
+        if (node.children == null) {
+            node.children = new ArrayList<>();
+        }
+        return node;
+    }
+
+    /**
+     * 删除文件或目录（连同其下所有节点），不存在时返回false
+     */
+    public boolean remove(String path) {
+        Node node = index.get(path);
+        if (node == null) return false;
+        int slash = path.lastIndexOf('/');
+        List<Node> siblings = slash < 0 ? roots : index.get(path.substring(0, slash)).children;
+        siblings.remove(node);
+        index.keySet().removeIf(p -> p.equals(path) || p.startsWith(path + "/"));
+        // 同一目录下可能有重名节点，重新索引
+        index(siblings, path.substring(0, slash + 1));
+        return true;
+    }
+
+    /**
+     * 移动或重命名文件/目录，缺少的上级目录会一并创建；源不存在、目标已存在或目标上级是文件时返回false
+     */
+    public boolean move(String from, String to) {
+        Node node = index.get(from);
+        if (node == null || index.containsKey(to) || to.startsWith(from + "/")) return false;
+        int slash = to.lastIndexOf('/');
+        for (int i = slash; i > 0; i = to.lastIndexOf('/', i - 1)) {
+            Node parent = index.get(to.substring(0, i));
+            if (parent != null && !parent.isFolder()) return false;
+        }
+        remove(from);
+        List<Node> siblings = slash < 0 ? roots : folder(to.substring(0, slash)).children;
+        node.name = to.substring(slash + 1);
+        siblings.add(node);
+        index.put(to, node);
+        if (node.children != null) {
+            index(node.children, to + "/");
+        }
+        return true;
+    }
+
+    /**
+     * 按文件名查找文件内容：优先根目录，其次按深度优先顺序取第一个同名文件
+     */
+    public String findFileContent(String fileName) {
+        String content = getContent(fileName);
+        return content != null ? content : findFile(roots, fileName);
+    }
+
+    private static String findFile(List<Node> nodes, String fileName) {
+        for (Node node : nodes) {
+            if (!node.isFolder() && fileName.equals(node.name)) {
+                return node.content;
+            }
+            if (node.children != null) {
+                String content = findFile(node.children, fileName);
+                if (content != null) return content;
+            }
+        }
+        return null;
+    }
+
+    // 深拷贝：节点为新对象，文件内容字符串共享
+    public ProjectTree copy() {
+        return new ProjectTree(copy(roots, null));
+    }
+
+    /**
+     * 深拷贝并把每个文件的内容替换为 mapper 的结果（如 内容 -> 哈希），目录和其他字段不变
+     */
+    public ProjectTree mapContents(Function<String, String> mapper) {
+        return new ProjectTree(copy(roots, mapper));
+    }
+
+    private static List<Node> copy(List<Node> nodes, Function<String, String> mapper) {
+        List<Node> result = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            Node copied = new Node(node.name, node.type);
+            copied.content = mapper != null && !node.isFolder() && node.content != null ? mapper.apply(node.content) : node.content;
+            copied.children = node.children != null ? copy(node.children, mapper) : null;
+            copied.attributes = node.attributes != null ? new LinkedHashMap<>(node.attributes) : null;
+            result.add(copied);
+        }
+        return result;
+    }
+
+    public List<Node> getRoots() {
+        return roots;
+    }
+
+    // 文件数量（不含目录）
+    public int fileCount() {
+        int count = 0;
+        for (Node node : index.values()) {
+            if (!node.isFolder()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * 路径 -> 文件内容，按深度优先顺序
+     */
+    public Map<String, String> toFlatMap() {
+        Map<String, String> files = new LinkedHashMap<>();
+        flatten(roots, "", files);
+        return files;
+    }
+
+    private static void flatten(List<Node> nodes, String prefix, Map<String, String> files) {
+        for (Node node : nodes) {
+            String path = prefix + node.name;
+            if (node.isFolder()) {
+                if (node.children != null) flatten(node.children, path + "/", files);
+            } else {
+                files.putIfAbsent(path, node.content != null ? node.content : "");
+            }
+        }
+    }
+
+    // 树形JSON，与数据库中保存的格式一致
+    public String toJson() throws Exception {
+        return objectMapper.writeValueAsString(roots);
+    }
+
+    public String toFlatJson() throws Exception {
+        return objectMapper.writeValueAsString(toFlatMap());
+    }
+
+    /**
+     * 渲染目录结构，用于提示词
+     */
+    public String renderStructure() {
+        StringBuilder sb = new StringBuilder();
+        render(roots, "", sb);
+        return sb.toString();
+    }
+
+    private static void render(List<Node> nodes, String prefix, StringBuilder sb) {
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            boolean isLast = (i == nodes.size() - 1);
+
+            sb.append(prefix);
+            sb.append(isLast ? "└── " : "├── ");
+            sb.append(node.name);
+            if (node.isFolder()) {
+                sb.append("/");
+            }
+            sb.append("\n");
+
+            if (node.isFolder() && node.children != null) {
+                render(node.children, prefix + (isLast ? "    " : "│   "), sb);
+            }
+        }
+    }
+
+    /**
+     * 树节点：name/type/content/children 之外的字段（如前端的id）原样保留
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonPropertyOrder({"name", "type", "content", "children"})
+    public static class Node {
+        @JsonProperty
+        private String name;
+        @JsonProperty
+        private String type;
+        @JsonProperty
+        private String content;
+        @JsonProperty
+        private List<Node> children;
+        // 其他字段，大多数节点没有，按需创建
+        private Map<String, Object> attributes;
+
+        Node() {}
+
+        Node(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        @JsonIgnore
+        public boolean isFolder() {
+            return "folder".equals(type) || "directory".equals(type);
+        }
+
+        @JsonAnyGetter
+        Map<String, Object> getAttributes() {
+            return attributes != null ? attributes : Collections.emptyMap();
+        }
+
+        @JsonAnySetter
+        void setAttribute(String key, Object value) {
+            if (attributes == null) attributes = new LinkedHashMap<>();
+            attributes.put(key, value);
+        }
+    }
+}
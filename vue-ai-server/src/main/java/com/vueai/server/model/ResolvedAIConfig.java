@@ -0,0 +1,54 @@
+package com.vueai.server.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 解析后的AI配置：数据库记录加上已解析的 config JSON，创建后不可修改，可在请求之间共享
+ */
+public class ResolvedAIConfig {
+
+    private final AIConfig config;
+    private final Map<String, Object> settings;
+    // 配置中指定的上下文窗口，未指定时为null
+    private final Integer contextWindow;
+
+    public ResolvedAIConfig(AIConfig config, Map<String, Object> settings) {
+        this.config = config;
+        this.settings = Collections.unmodifiableMap(settings);
+        Object window = settings.get("contextWindow");
+        if (window instanceof Number) {
+            this.contextWindow = ((Number) window).intValue();
+        } else {
+            this.contextWindow = window != null ? (int) Double.parseDouble(window.toString().trim()) : null;
+        }
+    }
+
+    public AIConfig getConfig() {
+        return config;
+    }
+
+    public Integer getId() {
+        return config.getId();
+    }
+
+    public String getProviderId() {
+        return config.getProviderId();
+    }
+
+    public String getModelId() {
+        return config.getModelId();
+    }
+
+    public boolean isActive() {
+        return Boolean.TRUE.equals(config.getIsActive());
+    }
+
+    public Map<String, Object> getSettings() {
+        return settings;
+    }
+
+    public Integer getContextWindow() {
+        return contextWindow;
+    }
+}
@@ -1,25 +1,103 @@
 package com.vueai.server.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.vueai.server.model.AIConfig;
+import com.vueai.server.model.ResolvedAIConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * AI配置管理。每个用户的配置解析后缓存在内存中，生成请求读取配置时不访问数据库也不解析JSON；
+ * 配置修改后在事务提交时失效本节点的缓存，并在 magic_sys_ai_config_change 表中记录变更序号，
+ * 其他节点定期按序号拉取变更并失效对应用户的缓存
+ */
 @Service
 public class AIConfigService {
 
+    private final Logger logger = LoggerFactory.getLogger(AIConfigService.class);
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${ai.config-cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    // 兜底过期时间，变更同步异常时最多使用这么久的旧配置
+    @Value("${ai.config-cache.ttl:600000}")
+    private long cacheTtl;
+
+    // 拉取其他节点配置变更的间隔，0 表示单节点部署不拉取
+    @Value("${ai.config-cache.sync-interval:5000}")
+    private long syncInterval;
+
+    // 用户ID -> 该用户的全部配置（活动配置在前）
+    private Cache<Integer, List<ResolvedAIConfig>> cache;
+    private ScheduledExecutorService syncExecutor;
+    // 已处理的最大变更序号
+    private volatile long lastChangeSeq;
+
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+    private final AtomicLong syncFailures = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofMillis(cacheTtl))
+                .recordStats()
+                .build();
+    }
+
+    // 在建表完成、应用就绪后开始拉取变更
+    @EventListener(ApplicationReadyEvent.class)
+    public void startSync() {
+        Long seq = jdbcTemplate.queryForObject("SELECT MAX(seq) FROM magic_sys_ai_config_change", Long.class);
+        lastChangeSeq = seq != null ? seq : 0;
+        if (syncInterval <= 0) return;
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ai-config-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.scheduleWithFixedDelay(this::syncChanges, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+    }
+
     private final RowMapper<AIConfig> aiConfigRowMapper = new RowMapper<AIConfig>() {
         @Override
         public AIConfig mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -42,6 +120,12 @@ public class AIConfigService {
         return jdbcTemplate.query(sql, aiConfigRowMapper, userId);
     }
 
+    // 按ID获取AI配置，不存在时返回null
+    public AIConfig getAIConfig(Integer id) {
+        List<AIConfig> configs = jdbcTemplate.query("SELECT * FROM magic_sys_ai_config WHERE id = ?", aiConfigRowMapper, id);
+        return configs.isEmpty() ? null : configs.get(0);
+    }
+
     // 保存AI配置
     @Transactional
     public AIConfig saveAIConfig(AIConfig aiConfig) {
@@ -72,13 +156,19 @@ public class AIConfigService {
             aiConfig.setId(insertedId);
         }
 
+        configChanged(aiConfig.getUserId());
         return aiConfig;
     }
 
     // 删除AI配置
+    @Transactional
     public void deleteAIConfig(Integer id) {
+        List<Integer> userIds = jdbcTemplate.queryForList("SELECT user_id FROM magic_sys_ai_config WHERE id = ?", Integer.class, id);
         String sql = "DELETE FROM magic_sys_ai_config WHERE id = ?";
         jdbcTemplate.update(sql, id);
+        for (Integer userId : userIds) {
+            configChanged(userId);
+        }
     }
 
     // 设置活动AI配置
@@ -101,14 +191,96 @@ public class AIConfigService {
         jdbcTemplate.update(updateSql, configId);
 
         config.setIsActive(true);
+        configChanged(config.getUserId());
         return config;
     }
 
     // 获取活动AI配置
     public AIConfig getActiveAIConfig(Integer userId) {
-        String sql = "SELECT * FROM magic_sys_ai_config WHERE user_id = ? AND is_active = 1";
-        List<AIConfig> configs = jdbcTemplate.query(sql, aiConfigRowMapper, userId);
-        return configs.isEmpty() ? null : configs.get(0);
+        ResolvedAIConfig active = getActiveConfig(userId);
+        return active != null ? active.getConfig() : null;
+    }
+
+    /**
+     * 用户当前的活动配置（含解析后的配置项），来自缓存；没有活动配置时返回null。
+     * 返回的对象在多个请求间共享，不能修改
+     */
+    public ResolvedAIConfig getActiveConfig(Integer userId) {
+        List<ResolvedAIConfig> configs = getResolvedConfigs(userId);
+        return !configs.isEmpty() && configs.get(0).isActive() ? configs.get(0) : null;
+    }
+
+    /**
+     * 用户的全部配置（含解析后的配置项），活动配置在前，其余按更新时间倒序，来自缓存
+     */
+    public List<ResolvedAIConfig> getResolvedConfigs(Integer userId) {
+        return cache.get(userId, this::loadResolvedConfigs);
+    }
+
+    private List<ResolvedAIConfig> loadResolvedConfigs(Integer userId) {
+        List<ResolvedAIConfig> resolved = new ArrayList<>();
+        for (AIConfig config : getAIConfigsByUserId(userId)) {
+            try {
+                resolved.add(new ResolvedAIConfig(config, objectMapper.readValue(config.getConfig(), new TypeReference<LinkedHashMap<String, Object>>(){})));
+            } catch (Exception e) {
+                // 一条格式错误的配置不影响该用户的其他配置
+                logger.warn("Skipping malformed AI config {} ({}/{}): {}", config.getId(), config.getProviderId(), config.getModelId(), e.getMessage());
+            }
+        }
+        return Collections.unmodifiableList(resolved);
+    }
+
+    // 记录配置变更：写入变更序号供其他节点拉取，并在事务提交后失效本节点缓存（提交前失效可能被并发读取重新缓存旧数据）
+    private void configChanged(Integer userId) {
+        if (userId == null) return;
+        jdbcTemplate.update("INSERT OR REPLACE INTO magic_sys_ai_config_change (user_id, seq, change_time) " +
+            "VALUES (?, (SELECT IFNULL(MAX(seq), 0) + 1 FROM magic_sys_ai_config_change), datetime('now'))", userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(userId);
+                }
+            });
+        } else {
+            invalidate(userId);
+        }
+    }
+
+    private void invalidate(Integer userId) {
+        cache.invalidate(userId);
+        invalidations.incrementAndGet();
+    }
+
+    // 拉取上次之后的配置变更（包括本节点自己的变更，重复失效无副作用）
+    private void syncChanges() {
+        try {
+            List<Map<String, Object>> changes = jdbcTemplate.queryForList(
+                "SELECT user_id, seq FROM magic_sys_ai_config_change WHERE seq > ? ORDER BY seq", lastChangeSeq);
+            for (Map<String, Object> change : changes) {
+                cache.invalidate(((Number) change.get("user_id")).intValue());
+                remoteInvalidations.incrementAndGet();
+                lastChangeSeq = ((Number) change.get("seq")).longValue();
+            }
+        } catch (Exception e) {
+            syncFailures.incrementAndGet();
+            logger.warn("Failed to sync AI config changes: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getCacheStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRatio", stats.hitRate());
+        result.put("invalidations", invalidations.get());
+        result.put("remoteInvalidations", remoteInvalidations.get());
+        result.put("syncInterval", syncInterval);
+        result.put("lastChangeSeq", lastChangeSeq);
+        result.put("syncFailures", syncFailures.get());
+        return result;
     }
 
     // 获取AI提供商信息
@@ -197,6 +369,17 @@ public class AIConfigService {
         }
     }
 
+    // 模型的上下文窗口大小(token)，模型不在已知列表中时返回默认值
+    public int getContextWindow(String providerId, String modelId, int defaultWindow) {
+        if (providerId == null || modelId == null) return defaultWindow;
+        for (Map<String, Object> model : getAIModels(providerId)) {
+            if (modelId.equals(model.get("id")) || modelId.equals(model.get("name"))) {
+                return (Integer) model.get("contextWindow");
+            }
+        }
+        return defaultWindow;
+    }
+
     private Map<String, Object> createModelMap(String id, String name, String displayName, int contextWindow, int maxTokens) {
         Map<String, Object> map = new HashMap<>();
         map.put("id", id);
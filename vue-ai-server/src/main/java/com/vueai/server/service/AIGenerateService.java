@@ -1,34 +1,47 @@
 package com.vueai.server.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vueai.server.service.provider.ProviderAdapter;
+import com.vueai.server.service.provider.ProviderEndpoint;
+import com.vueai.server.service.provider.ProviderRegistry;
+import com.vueai.server.util.AIRequestFingerprint;
+import com.vueai.server.util.MarkdownFenceStripper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 @Service
 public class AIGenerateService {
 
     private final Logger logger = LoggerFactory.getLogger(AIGenerateService.class);
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    
-    private static final Map<String, String> ZHIPU_MODELS = new HashMap<>();
-    static {
-        ZHIPU_MODELS.put("glm-4", "GLM-4");
-        ZHIPU_MODELS.put("glm-4v", "GLM-4V");
-        ZHIPU_MODELS.put("glm-3-turbo", "GLM-3-Turbo");
-        ZHIPU_MODELS.put("chatglm_turbo", "ChatGLM-Turbo");
-        ZHIPU_MODELS.put("chatglm_pro", "ChatGLM-Pro");
-        ZHIPU_MODELS.put("chatglm_std", "ChatGLM-Std");
-        ZHIPU_MODELS.put("chatglm_lite", "ChatGLM-Lite");
-    }
 
+    @Autowired
+    private AIProviderTransport transport;
+
+    @Autowired
+    private AIResponseCache responseCache;
+
+    @Autowired
+    private AIRequestCoalescer coalescer;
+
+    @Autowired
+    private ProviderRateLimiter rateLimiter;
+
+    @Autowired
+    private ProviderResilience resilience;
+
+    @Autowired
+    private ProviderRegistry providerRegistry;
+
+    @Autowired
+    private ModelRouter modelRouter;
+    
     private String buildVueSystemPrompt() {
         return "You are a Vue 3 component generation expert. Return ONLY the complete Vue component code. " +
                "Use Vue 3 Composition API with <script setup> syntax. " +
@@ -54,252 +67,263 @@ public class AIGenerateService {
     }
 
     public Map<String, Object> generate(String provider, String model, Map<String, Object> config, String prompt) throws Exception {
+        return generate(provider, model, config, prompt, true, null);
+    }
+
+    public Map<String, Object> generate(String provider, String model, Map<String, Object> config, String prompt, boolean useCache, Integer userId) throws Exception {
         logger.info("=== AI Generate Request ===");
         logger.info("Provider: {}, Model: {}", provider, model);
         logger.info("Prompt: {}", prompt);
         
         List<Map<String, Object>> messages = buildMessages(prompt);
-        return generateWithMessages(provider, model, config, messages);
-    }
-
-    public Map<String, Object> generateWithMessages(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages) throws Exception {
-        if (config.containsKey("modelName") && config.get("modelName") != null) {
-            model = config.get("modelName").toString();
-        }
-        
-        String providerId = provider.toLowerCase();
-        
-        if (providerId.equals("zhipu") || 
-            providerId.contains("zhipu") || 
-            providerId.equals("glm") ||
-            (config.get("baseUrl") != null && config.get("baseUrl").toString().toLowerCase().contains("bigmodel.cn"))) {
-            return generateWithZhipuAI(config, messages, model);
+        if (!useCache || !responseCache.isEnabled()) {
+            return generateWithMessages(provider, model, config, messages, userId);
         }
-        
-        switch (providerId) {
-            case "openai":
-                return generateWithOpenAI(config, messages, model);
-            case "anthropic":
-                return generateWithAnthropic(config, messages, model);
-            case "qwen":
-                return generateWithQwen(config, messages, model);
-            case "custom":
-                return generateWithCustomAPI(config, messages, model);
-            default:
-                return generateWithCustomAPI(config, messages, model);
-        }
-    }
 
-    private Map<String, Object> generateWithZhipuAI(Map<String, Object> config, List<Map<String, Object>> messages, String model) throws Exception {
-        String apiKey = (String) config.get("apiKey");
-        String baseUrl = (String) config.getOrDefault("baseUrl", "https://open.bigmodel.cn/api/paas/v4");
-        
-        String actualModel = model;
-        if (!ZHIPU_MODELS.containsKey(model.toLowerCase()) && !model.toLowerCase().contains("glm")) {
-            actualModel = "glm-4";
+        String fingerprint = responseCache.key(provider, model, config, messages);
+        String cached = responseCache.get(fingerprint);
+        if (cached != null) {
+            logger.info("AI response cache hit: {}", fingerprint);
+            Map<String, Object> result = buildContentResult(cached);
+            result.put("cached", true);
+            return result;
         }
-        
-        String url = baseUrl + (baseUrl.endsWith("/") ? "" : "/") + "chat/completions";
-        
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", apiKey);
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", actualModel);
-        body.put("messages", messages);
-        body.put("max_tokens", 4096);
-        body.put("temperature", 0.7);
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        logger.info("Calling ZhipuAI API: {}", url);
-        ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-        logger.info("ZhipuAI Response: {}", response.getStatusCode());
-        
-        return parseZhipuAIResponse(response.getBody());
+        Map<String, Object> result = generateWithMessages(provider, model, config, messages, userId);
+        responseCache.put(fingerprint, provider, model, (String) ((Map) result.get("data")).get("content"));
+        return result;
     }
 
-    private Map<String, Object> generateWithOpenAI(Map<String, Object> config, List<Map<String, Object>> messages, String model) throws Exception {
-        String apiKey = (String) config.get("apiKey");
-        String baseUrl = (String) config.getOrDefault("baseUrl", "https://api.openai.com/v1");
-        String url = baseUrl + "/chat/completions";
+    /**
+     * 流式生成Vue组件，返回清理Markdown代码块后的完整代码
+     */
+    public String generateStream(String provider, String model, Map<String, Object> config, String prompt, boolean useCache, Integer userId, Consumer<String> onToken) throws Exception {
+        logger.info("=== AI Generate Stream Request ===");
+        logger.info("Provider: {}, Model: {}", provider, model);
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        if (apiKey != null && apiKey.startsWith("sk-")) {
-            headers.setBearerAuth(apiKey);
+        List<Map<String, Object>> messages = buildMessages(prompt);
+        String fingerprint = null;
+        if (useCache && responseCache.isEnabled()) {
+            fingerprint = responseCache.key(provider, model, config, messages);
+            String cached = responseCache.get(fingerprint);
+            if (cached != null) {
+                logger.info("AI response cache hit: {}", fingerprint);
+                onToken.accept(cached);
+                return cached;
+            }
         }
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", model);
-        body.put("messages", messages);
-        body.put("max_tokens", 4096);
-        body.put("temperature", 0.7);
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        logger.info("Calling OpenAI API: {}", url);
-        ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-        logger.info("OpenAI Response: {}", response.getStatusCode());
-        
-        return parseOpenAIResponse(response.getBody());
+        // 增量在发送给客户端前同样去除代码块标记
+        MarkdownFenceStripper stripper = new MarkdownFenceStripper();
+        String content = cleanMarkdownCodeBlock(streamWithMessages(provider, model, config, messages, userId, token -> {
+            String cleaned = stripper.feed(token);
+            if (!cleaned.isEmpty()) onToken.accept(cleaned);
+        }));
+        String rest = stripper.finish();
+        if (!rest.isEmpty()) onToken.accept(rest);
+        if (fingerprint != null) {
+            responseCache.put(fingerprint, provider, model, content);
+        }
+        return content;
     }
 
-    private Map<String, Object> generateWithAnthropic(Map<String, Object> config, List<Map<String, Object>> messages, String model) throws Exception {
-        String apiKey = (String) config.get("apiKey");
-        String url = "https://api.anthropic.com/v1/messages";
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("x-api-key", apiKey);
-        headers.set("anthropic-version", "2023-06-01");
-
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", model);
-        body.put("max_tokens", 4096);
-        body.put("messages", messages);
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        logger.info("Calling Anthropic API: {}", url);
-        ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-        logger.info("Anthropic Response: {}", response.getStatusCode());
-        
-        return parseAnthropicResponse(response.getBody());
+    public Map<String, Object> generateWithMessages(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages) throws Exception {
+        return generateWithMessages(provider, model, config, messages, null);
     }
 
-    private Map<String, Object> generateWithQwen(Map<String, Object> config, List<Map<String, Object>> messages, String model) throws Exception {
-        String apiKey = (String) config.get("apiKey");
-        String url = "https://dashscope.aliyuncs.com/compatible-mode/v1/chat/completions";
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + apiKey);
-
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", model);
-        body.put("messages", messages);
-        body.put("max_tokens", 4096);
-        body.put("temperature", 0.7);
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        logger.info("Calling Qwen API: {}", url);
-        ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-        logger.info("Qwen Response: {}", response.getStatusCode());
-        
-        return parseOpenAIResponse(response.getBody());
+    public Map<String, Object> generateWithMessages(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages, Integer userId) throws Exception {
+        String key = AIRequestFingerprint.of(provider, model, config, messages);
+        return coalescer.execute(key, () -> {
+            ProviderCall call = buildProviderCall(provider, model, config, messages, false);
+            if (!resilience.isHedgeEnabled()) {
+                return resilience.call(call.breakerKey(), () -> callProvider(call, config, userId), null, null);
+            }
+
+            String hedgeProvider = config.get("fallbackProvider") != null ? config.get("fallbackProvider").toString() : provider;
+            Map<String, Object> hedgeConfig = hedgeConfig(config);
+            ProviderCall hedgeCall = buildProviderCall(hedgeProvider, model, hedgeConfig, messages, false);
+            return resilience.call(call.breakerKey(), () -> callProvider(call, config, userId),
+                hedgeCall.breakerKey(), () -> callProvider(hedgeCall, hedgeConfig, userId));
+        });
     }
 
-    private Map<String, Object> generateWithCustomAPI(Map<String, Object> config, List<Map<String, Object>> messages, String model) throws Exception {
-        String baseUrl = (String) config.get("baseUrl");
-        String apiKey = (String) config.get("apiKey");
-
-        if (baseUrl == null || baseUrl.isEmpty()) {
-            throw new RuntimeException("API地址未配置，请先配置API地址");
+    // 对冲目标：fallbackConfig 指定其他提供商的配置，或 fallbackModel 指定同一提供商的其他模型；均未配置时向同一目标重复请求
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> hedgeConfig(Map<String, Object> config) {
+        if (config.get("fallbackConfig") instanceof Map) {
+            return (Map<String, Object>) config.get("fallbackConfig");
         }
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        if (apiKey != null && !apiKey.isEmpty()) {
-            headers.setBearerAuth(apiKey);
+        Map<String, Object> hedgeConfig = new HashMap<>(config);
+        if (config.get("fallbackModel") != null) {
+            hedgeConfig.put("modelName", config.get("fallbackModel"));
         }
+        return hedgeConfig;
+    }
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", model);
-        body.put("messages", messages);
-        body.put("max_tokens", 4096);
-        body.put("temperature", 0.7);
+    private Map<String, Object> callProvider(ProviderCall call, Map<String, Object> config, Integer userId) throws Exception {
+        String bucketKey = acquireQuota(call, config, userId);
+
+        logger.info("Calling {} API: {}", call.name, call.url);
+        ResponseEntity<String> response;
+        long start = System.currentTimeMillis();
+        try {
+            response = transport.post(call.url, call.headers, call.body, call.adapter::decode);
+        } catch (HttpStatusCodeException e) {
+            modelRouter.record(call.targetKey(), System.currentTimeMillis() - start, false);
+            throw translateHttpError(call, bucketKey, e);
+        } catch (Exception e) {
+            // 对冲中落败被中止的请求不计入提供商的统计
+            if (!AIProviderTransport.isAborted()) {
+                modelRouter.record(call.targetKey(), System.currentTimeMillis() - start, false);
+            }
+            throw e;
+        }
+        modelRouter.record(call.targetKey(), System.currentTimeMillis() - start, true);
+        logger.info("{} Response: {}", call.name, response.getStatusCode());
+        rateLimiter.onResponse(bucketKey, response.getHeaders());
 
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
+        // 清理可能的markdown代码块
+        String content = cleanMarkdownCodeBlock(response.getBody());
+        return buildContentResult(content);
+    }
 
-        logger.info("Calling Custom API: {}", baseUrl);
-        ResponseEntity<String> response = restTemplate.postForEntity(baseUrl, request, String.class);
-        logger.info("Custom API Response: {}", response.getStatusCode());
-        
-        return parseOpenAIResponse(response.getBody());
+    /**
+     * 流式生成：使用提供商的 stream 模式，每收到一段增量文本即回调 onToken，返回完整的原始生成内容
+     */
+    public String streamWithMessages(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages, Integer userId, Consumer<String> onToken) throws Exception {
+        String key = AIRequestFingerprint.of(provider, model, config, messages);
+        return coalescer.stream(key, onToken, sink -> {
+            ProviderCall call = buildProviderCall(provider, model, config, messages, true);
+            if (!call.adapter.capabilities().isStreaming()) {
+                // 不支持流式的提供商退化为一次性返回全部内容
+                Map<String, Object> result = resilience.call(call.breakerKey(), () -> callProvider(call, config, userId), null, null);
+                String content = (String) ((Map) result.get("data")).get("content");
+                sink.accept(content);
+                return content;
+            }
+
+            // 已经向客户端输出过增量后不能再重试
+            AtomicBoolean emitted = new AtomicBoolean(false);
+            Consumer<String> tracked = token -> {
+                emitted.set(true);
+                sink.accept(token);
+            };
+            return resilience.stream(call.breakerKey(), () -> streamProvider(call, config, userId, tracked), () -> !emitted.get());
+        });
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> parseZhipuAIResponse(String responseBody) throws Exception {
-        Map response = objectMapper.readValue(responseBody, Map.class);
-        List<Map<String, Object>> choices = (List<Map<String, Object>>) response.get("choices");
-        if (choices == null || choices.isEmpty()) {
-            throw new RuntimeException("API返回空响应");
+    private String streamProvider(ProviderCall call, Map<String, Object> config, Integer userId, Consumer<String> onToken) throws Exception {
+        String bucketKey = acquireQuota(call, config, userId);
+
+        StringBuilder content = new StringBuilder();
+        logger.info("Streaming {} API: {}", call.name, call.url);
+        HttpHeaders responseHeaders;
+        long start = System.currentTimeMillis();
+        try {
+            responseHeaders = transport.postStream(call.url, call.headers, call.body, line -> {
+                String token = parseStreamLine(call.adapter, line);
+                if (token != null && !token.isEmpty()) {
+                    content.append(token);
+                    onToken.accept(token);
+                }
+            });
+        } catch (HttpStatusCodeException e) {
+            modelRouter.record(call.targetKey(), System.currentTimeMillis() - start, false);
+            throw translateHttpError(call, bucketKey, e);
+        } catch (AIProviderTransport.StreamAbortedException e) {
+            // 下游（客户端断开等）中止的流不计入提供商的统计
+            throw e;
+        } catch (RuntimeException e) {
+            modelRouter.record(call.targetKey(), System.currentTimeMillis() - start, false);
+            throw e;
         }
-        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-        String content = (String) message.get("content");
-        if (content == null) content = (String) message.get("reasoning_content");
-        
-        // 清理可能的markdown代码块
-        content = cleanMarkdownCodeBlock(content);
-        
-        Map<String, Object> result = new HashMap<>();
-        result.put("code", 1);
-        Map<String, Object> data = new HashMap<>();
-        data.put("content", content);
-        result.put("data", data);
-        return result;
+        modelRouter.record(call.targetKey(), System.currentTimeMillis() - start, true);
+        rateLimiter.onResponse(bucketKey, responseHeaders);
+        logger.info("{} stream finished, {} chars", call.name, content.length());
+        return content.toString();
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> parseOpenAIResponse(String responseBody) throws Exception {
-        Map response = objectMapper.readValue(responseBody, Map.class);
-        List<Map<String, Object>> choices = (List<Map<String, Object>>) response.get("choices");
-        if (choices == null || choices.isEmpty()) {
-            throw new RuntimeException("API返回空响应");
+    // 按 (提供商, API Key) 申请限流配额，返回限流桶的键
+    private String acquireQuota(ProviderCall call, Map<String, Object> config, Integer userId) throws InterruptedException {
+        String bucketKey = ProviderRateLimiter.bucketKey(call.name, (String) config.get("apiKey"));
+        rateLimiter.acquire(bucketKey, userId != null ? "user:" + userId : "anonymous", estimateTokens(call));
+        return bucketKey;
+    }
+
+    // 粗略估算本次调用消耗的token：提示词按4字符/token，加上最大输出token
+    private long estimateTokens(ProviderCall call) {
+        long chars = 0;
+        Object messages = call.body.get("messages");
+        if (messages instanceof List) {
+            for (Object message : (List<?>) messages) {
+                Object content = ((Map<?, ?>) message).get("content");
+                if (content != null) chars += content.toString().length();
+            }
         }
-        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-        String content = (String) message.get("content");
-        if (content == null) content = (String) message.get("reasoning_content");
-        
-        // 清理可能的markdown代码块
-        content = cleanMarkdownCodeBlock(content);
-        
-        Map<String, Object> result = new HashMap<>();
-        result.put("code", 1);
-        Map<String, Object> data = new HashMap<>();
-        data.put("content", content);
-        result.put("data", data);
-        return result;
+        Object maxTokens = call.body.get("max_tokens");
+        return chars / 4 + (maxTokens instanceof Number ? ((Number) maxTokens).longValue() : 0);
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> parseAnthropicResponse(String responseBody) throws Exception {
-        Map response = objectMapper.readValue(responseBody, Map.class);
-        List<Map<String, Object>> content = (List<Map<String, Object>>) response.get("content");
-        if (content == null || content.isEmpty()) {
-            throw new RuntimeException("API返回空响应");
+    private RuntimeException translateHttpError(ProviderCall call, String bucketKey, HttpStatusCodeException e) {
+        if (e.getRawStatusCode() == 429) {
+            rateLimiter.onThrottled(bucketKey, e.getResponseHeaders());
+            return new ProviderRateLimiter.ProviderRateLimitException(call.name + " 服务限流(429)，请稍后重试");
         }
-        String contentText = (String) content.get(0).get("text");
-        
-        // 清理可能的markdown代码块
-        contentText = cleanMarkdownCodeBlock(contentText);
-        
+        return e;
+    }
+
+    private ProviderCall buildProviderCall(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages, boolean stream) {
+        ProviderEndpoint endpoint = providerRegistry.resolve(provider, model, config);
+        return new ProviderCall(endpoint, endpoint.getAdapter().encode(endpoint, messages, stream));
+    }
+
+    private Map<String, Object> buildContentResult(String content) {
         Map<String, Object> result = new HashMap<>();
         result.put("code", 1);
         Map<String, Object> data = new HashMap<>();
-        data.put("content", contentText);
+        data.put("content", content);
         result.put("data", data);
         return result;
     }
     
     private String cleanMarkdownCodeBlock(String content) {
-        if (content == null) return "";
-        // 移除 ```vue, ```html, ```xml 等代码块标记
-        content = content.replaceAll("```vue\\s*", "");
-        content = content.replaceAll("```html\\s*", "");
-        content = content.replaceAll("```xml\\s*", "");
-        content = content.replaceAll("```typescript\\s*", "");
-        content = content.replaceAll("```javascript\\s*", "");
-        content = content.replaceAll("```\\s*", "");
-        // 移除结尾的 ```
-        content = content.replaceAll("\\s*```\\s*$", "");
-        return content.trim();
+        // 移除 ```vue, ```html 等代码块标记及首尾空白
+        return MarkdownFenceStripper.strip(content);
+    }
+
+    // 解析SSE数据行中的增量文本，非数据行或结束标记返回null
+    private String parseStreamLine(ProviderAdapter adapter, String line) throws Exception {
+        if (line == null || !line.startsWith("data:")) return null;
+        String data = line.substring(5).trim();
+        if (data.isEmpty() || "[DONE]".equals(data)) return null;
+        return adapter.decodeStreamEvent(data);
     }
 
-    private Map<String, Object> parseAIContent(String content) throws Exception {
-        return null;
+    // 一次提供商调用：解析好的调用目标加上本次的请求体
+    private static class ProviderCall {
+        final String name;
+        final String url;
+        final HttpHeaders headers;
+        final Map<String, Object> body;
+        final ProviderAdapter adapter;
+        final String model;
+
+        ProviderCall(ProviderEndpoint endpoint, Map<String, Object> body) {
+            this.name = endpoint.getName();
+            this.url = endpoint.getUrl();
+            this.headers = endpoint.getHeaders();
+            this.body = body;
+            this.adapter = endpoint.getAdapter();
+            this.model = endpoint.getModel();
+        }
+
+        String breakerKey() {
+            return ProviderResilience.breakerKey(name, url);
+        }
+
+        // 路由统计按 (提供商, 地址, 模型) 区分
+        String targetKey() {
+            return ModelRouter.targetKey(name, url, model);
+        }
     }
 }
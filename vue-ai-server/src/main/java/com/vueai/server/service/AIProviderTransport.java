@@ -0,0 +1,205 @@
+package com.vueai.server.service;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * AI提供商共享传输层：所有提供商请求经由同一个连接池发送
+ */
+@Component
+public class AIProviderTransport {
+
+    private final Logger logger = LoggerFactory.getLogger(AIProviderTransport.class);
+
+    // 当前线程上发出的请求可被其他线程中止（对冲请求中落败的一方）
+    private static final ThreadLocal<AbortHandle> CURRENT = new ThreadLocal<>();
+
+    @Autowired
+    @Qualifier("aiRestTemplate")
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    public ResponseEntity<String> post(String url, HttpHeaders headers, Object body) {
+        long start = System.currentTimeMillis();
+        ResponseEntity<String> response = restTemplate.postForEntity(url, new HttpEntity<>(body, headers), String.class);
+        logger.debug("POST {} -> {} in {}ms", url, response.getStatusCode(), System.currentTimeMillis() - start);
+        return response;
+    }
+
+    /**
+     * 发送请求并直接从响应输入流解码响应体，不先读成完整字符串
+     */
+    public <T> ResponseEntity<T> post(String url, HttpHeaders headers, Object body, BodyReader<T> reader) {
+        long start = System.currentTimeMillis();
+        RequestCallback requestCallback = restTemplate.httpEntityCallback(new HttpEntity<>(body, headers));
+        ResponseEntity<T> response = restTemplate.execute(url, HttpMethod.POST, requestCallback,
+                res -> new ResponseEntity<>(reader.read(res.getBody()), res.getHeaders(), res.getStatusCode()));
+        logger.debug("POST {} -> {} in {}ms", url, response.getStatusCode(), System.currentTimeMillis() - start);
+        return response;
+    }
+
+    /**
+     * 以流式方式发送请求，按行回调响应体（用于SSE），返回响应头
+     */
+    public HttpHeaders postStream(String url, HttpHeaders headers, Object body, LineHandler handler) {
+        HttpHeaders streamHeaders = new HttpHeaders();
+        streamHeaders.putAll(headers);
+        streamHeaders.setAccept(Collections.singletonList(MediaType.TEXT_EVENT_STREAM));
+
+        RequestCallback requestCallback = restTemplate.httpEntityCallback(new HttpEntity<>(body, streamHeaders));
+        return restTemplate.execute(url, HttpMethod.POST, requestCallback, response -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    handler.onLine(line);
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new StreamAbortedException(e);
+            }
+            return response.getHeaders();
+        });
+    }
+
+    /**
+     * 在当前线程上执行 task，期间发出的提供商请求可通过 handle.abort() 从其他线程中止
+     */
+    public static <T> T abortable(AbortHandle handle, Callable<T> task) throws Exception {
+        AbortHandle previous = CURRENT.get();
+        CURRENT.set(handle);
+        try {
+            return task.call();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    // 新建中止句柄；当前线程已在某个句柄下执行时作为其子句柄，外层中止时一并中止（转到其他线程执行的请求）
+    public static AbortHandle newHandle() {
+        AbortHandle parent = CURRENT.get();
+        return parent != null ? parent.child() : new AbortHandle();
+    }
+
+    // 当前线程的请求是否已被中止，被中止的请求不计入提供商的统计
+    public static boolean isAborted() {
+        AbortHandle handle = CURRENT.get();
+        return handle != null && handle.isAborted();
+    }
+
+    // 由请求工厂在每个请求发出前调用
+    public static void onRequest(HttpUriRequest request) {
+        AbortHandle handle = CURRENT.get();
+        if (handle != null) {
+            handle.bind(request);
+        }
+    }
+
+    // 连接池统计
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("total", toMap(connectionManager.getTotalStats()));
+
+        Map<String, Object> routes = new HashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), toMap(connectionManager.getStats(route)));
+        }
+        stats.put("routes", routes);
+        return stats;
+    }
+
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    public interface LineHandler {
+        void onLine(String line) throws Exception;
+    }
+
+    // 行回调抛出的异常，用于中断读取并向调用方透传
+    public static class StreamAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StreamAbortedException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 中止句柄：abort() 会中止正在进行的请求（连接、等待响应或读取响应体），之后发出的请求也会立即中止
+     */
+    public static class AbortHandle {
+        private volatile boolean aborted;
+        private volatile HttpUriRequest request;
+        private final List<AbortHandle> children = new CopyOnWriteArrayList<>();
+
+        public void abort() {
+            aborted = true;
+            HttpUriRequest current = request;
+            if (current != null) {
+                current.abort();
+            }
+            for (AbortHandle child : children) {
+                child.abort();
+            }
+        }
+
+        AbortHandle child() {
+            AbortHandle child = new AbortHandle();
+            children.add(child);
+            if (aborted) {
+                child.abort();
+            }
+            return child;
+        }
+
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        void bind(HttpUriRequest request) {
+            this.request = request;
+            if (aborted) {
+                request.abort();
+            }
+        }
+    }
+
+    private Map<String, Object> toMap(PoolStats poolStats) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("leased", poolStats.getLeased());
+        map.put("available", poolStats.getAvailable());
+        map.put("pending", poolStats.getPending());
+        map.put("max", poolStats.getMax());
+        return map;
+    }
+}
@@ -0,0 +1,185 @@
+package com.vueai.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 相同AI请求的并发合并（single-flight）：同一指纹的并发请求只向提供商发起一次调用，
+ * 所有等待者共享其结果；流式请求的后加入者会先补发已到达的增量，再接收后续增量
+ */
+@Component
+public class AIRequestCoalescer {
+
+    private final Logger logger = LoggerFactory.getLogger(AIRequestCoalescer.class);
+
+    private final ConcurrentHashMap<String, CompletableFuture<Map<String, Object>>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SharedStream> inFlightStreams = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public interface StreamCall {
+        String call(Consumer<String> onToken) throws Exception;
+    }
+
+    public Map<String, Object> execute(String key, Callable<Map<String, Object>> call) throws Exception {
+        calls.incrementAndGet();
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            logger.info("Joined in-flight AI request: {}", key);
+            return copyResult(await(existing));
+        }
+
+        try {
+            future.complete(call.call());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+        return copyResult(await(future));
+    }
+
+    public String stream(String key, Consumer<String> onToken, StreamCall call) throws Exception {
+        calls.incrementAndGet();
+        SharedStream stream = new SharedStream();
+        stream.subscribe(onToken);
+        SharedStream existing = inFlightStreams.putIfAbsent(key, stream);
+        if (existing != null && existing.subscribe(onToken)) {
+            coalesced.incrementAndGet();
+            logger.info("Joined in-flight AI stream: {}", key);
+            return await(existing.result);
+        }
+        if (existing != null) {
+            // 已有的流刚好结束，退化为独立调用
+            inFlightStreams.put(key, stream);
+        }
+
+        try {
+            stream.result.complete(call.call(stream::publish));
+        } catch (Throwable e) {
+            stream.result.completeExceptionally(e);
+        } finally {
+            stream.close();
+            inFlightStreams.remove(key, stream);
+        }
+        return await(stream.result);
+    }
+
+    private <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    // 每个调用方拿到独立的结果副本，避免调用方修改共享的Map
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> copyResult(Map<String, Object> result) {
+        Map<String, Object> copy = new HashMap<>(result);
+        Object data = copy.get("data");
+        if (data instanceof Map) {
+            copy.put("data", new HashMap<>((Map<String, Object>) data));
+        }
+        return copy;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("calls", calls.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("inFlight", inFlight.size() + inFlightStreams.size());
+        return stats;
+    }
+
+    // 多个订阅者共享的一次流式调用；向订阅者发送时不持有流的锁，慢的客户端不阻塞订阅和结束
+    private static class SharedStream {
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private boolean closed = false;
+
+        // 补发已到达的增量后加入订阅；流已结束时返回false
+        boolean subscribe(Consumer<String> consumer) {
+            Subscriber subscriber = new Subscriber(consumer);
+            synchronized (this) {
+                if (closed) return false;
+                subscribers.add(subscriber);
+            }
+            drain(subscriber);
+            return true;
+        }
+
+        // 某个订阅者失败（如客户端断开）只移除该订阅者；所有订阅者都离开后中止上游
+        void publish(String token) {
+            List<Subscriber> targets;
+            synchronized (this) {
+                tokens.add(token);
+                targets = new ArrayList<>(subscribers);
+            }
+            for (Subscriber subscriber : targets) {
+                drain(subscriber);
+            }
+            synchronized (this) {
+                subscribers.removeIf(subscriber -> subscriber.failed);
+                if (subscribers.isEmpty()) {
+                    throw new CancellationException("所有客户端已断开");
+                }
+            }
+        }
+
+        // 按顺序发送该订阅者尚未收到的增量；其他线程正在向它发送时由该线程负责发完
+        private void drain(Subscriber subscriber) {
+            while (subscriber.lock.tryLock()) {
+                try {
+                    while (!subscriber.failed) {
+                        List<String> pending;
+                        synchronized (this) {
+                            if (subscriber.delivered >= tokens.size()) break;
+                            pending = new ArrayList<>(tokens.subList(subscriber.delivered, tokens.size()));
+                        }
+                        for (String token : pending) {
+                            subscriber.consumer.accept(token);
+                            subscriber.delivered++;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    subscriber.failed = true;
+                } finally {
+                    subscriber.lock.unlock();
+                }
+                // 释放锁前后可能有新的增量到达，而发布线程没能拿到锁
+                synchronized (this) {
+                    if (subscriber.failed || subscriber.delivered >= tokens.size()) return;
+                }
+            }
+        }
+
+        // 已加入的订阅者可能仍在补发，保留已到达的增量
+        synchronized void close() {
+            closed = true;
+        }
+    }
+
+    private static class Subscriber {
+        final Consumer<String> consumer;
+        final ReentrantLock lock = new ReentrantLock();
+        int delivered;
+        volatile boolean failed;
+
+        Subscriber(Consumer<String> consumer) {
+            this.consumer = consumer;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.vueai.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.vueai.server.util.AIRequestFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI生成结果缓存：以 AIRequestFingerprint 计算的请求指纹为键，默认按 apiKey 隔离，
+ * 一个Key的结果不会返回给使用其他Key的用户；ai.cache.shared-across-keys=true 时在所有Key之间共享。
+ * 内存层使用 W-TinyLFU 淘汰，可选 SQLite 持久层
+ */
+@Component
+public class AIResponseCache {
+
+    private final Logger logger = LoggerFactory.getLogger(AIResponseCache.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.max-size:1000}")
+    private long maxSize;
+
+    @Value("${ai.cache.ttl:3600000}")
+    private long ttl;
+
+    @Value("${ai.cache.persistent:false}")
+    private boolean persistent;
+
+    // 为 true 时相同请求的结果在不同 apiKey（不同用户/账户）之间共享
+    @Value("${ai.cache.shared-across-keys:false}")
+    private boolean sharedAcrossKeys;
+
+    private Cache<String, String> cache;
+    private final AtomicLong persistentHits = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // 请求的缓存键
+    public String key(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages) {
+        return AIRequestFingerprint.of(provider, model, config, messages, !sharedAcrossKeys);
+    }
+
+    // 命中时返回缓存的生成内容，未命中返回null
+    public String get(String fingerprint) {
+        if (!enabled) return null;
+        String content = cache.getIfPresent(fingerprint);
+        if (content != null || !persistent) {
+            return content;
+        }
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT content, expire_time FROM magic_sys_ai_response_cache WHERE fingerprint = ?", fingerprint);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        long expireTime = ((Number) rows.get(0).get("expire_time")).longValue();
+        if (expireTime < System.currentTimeMillis()) {
+            jdbcTemplate.update("DELETE FROM magic_sys_ai_response_cache WHERE fingerprint = ?", fingerprint);
+            return null;
+        }
+        content = (String) rows.get(0).get("content");
+        cache.put(fingerprint, content);
+        persistentHits.incrementAndGet();
+        return content;
+    }
+
+    public void put(String fingerprint, String provider, String model, String content) {
+        if (!enabled || content == null || content.isEmpty()) return;
+        cache.put(fingerprint, content);
+        if (persistent) {
+            try {
+                jdbcTemplate.update("INSERT OR REPLACE INTO magic_sys_ai_response_cache " +
+                        "(fingerprint, provider, model, content, expire_time) VALUES (?, ?, ?, ?, ?)",
+                        fingerprint, provider, model, content, System.currentTimeMillis() + ttl);
+            } catch (Exception e) {
+                logger.warn("Failed to persist AI response cache entry: " + e.getMessage());
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> map = new HashMap<>();
+        map.put("enabled", enabled);
+        map.put("persistent", persistent);
+        map.put("sharedAcrossKeys", sharedAcrossKeys);
+        map.put("size", cache.estimatedSize());
+        map.put("hits", stats.hitCount());
+        map.put("misses", stats.missCount());
+        map.put("hitRatio", stats.hitRate());
+        map.put("evictions", stats.evictionCount());
+        map.put("persistentHits", persistentHits.get());
+        return map;
+    }
+}
@@ -0,0 +1,343 @@
+package com.vueai.server.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模块生成任务队列：提交后立即返回任务ID，由固定数量的工作线程按用户轮转执行，
+ * 任务状态与结果持久化在 magic_sys_ai_job 表中，重启后未完成的任务会重新排队；
+ * 已结束的任务保留 ai.jobs.retention 毫秒后被定期清理
+ */
+@Service
+public class GenerationJobService {
+
+    private final Logger logger = LoggerFactory.getLogger(GenerationJobService.class);
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private SmartCodeGeneratorService smartCodeGeneratorService;
+
+    @Value("${ai.jobs.workers:4}")
+    private int workers;
+
+    @Value("${ai.jobs.max-running-per-user:2}")
+    private int maxRunningPerUser;
+
+    // 已结束任务（成功、失败、取消）的保留时间，0 表示不清理
+    @Value("${ai.jobs.retention:604800000}")
+    private long retention;
+
+    @Value("${ai.jobs.sweep-interval:3600000}")
+    private long sweepInterval;
+
+    private final Object lock = new Object();
+    // 每个用户一个等待队列，按用户轮转取任务；以下字段在持有 lock 时访问
+    private final LinkedHashMap<Integer, ArrayDeque<String>> waiting = new LinkedHashMap<>();
+    private final Map<Integer, Integer> runningPerUser = new HashMap<>();
+    private int queued;
+
+    // 正在执行的任务及其工作线程和中止句柄，用于取消时中止请求并中断线程
+    private final Map<String, RunningJob> runningJobs = new HashMap<>();
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private ScheduledExecutorService sweepExecutor;
+    private volatile boolean stopped = false;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong purged = new AtomicLong();
+
+    // 在建表完成、应用就绪后恢复未完成的任务并启动工作线程
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        int recovered = jdbcTemplate.update("UPDATE magic_sys_ai_job SET status = ?, start_time = NULL WHERE status = ?", QUEUED, RUNNING);
+        List<Map<String, Object>> pending = jdbcTemplate.queryForList(
+            "SELECT id, user_id FROM magic_sys_ai_job WHERE status = ? ORDER BY create_time, rowid", QUEUED);
+        for (Map<String, Object> job : pending) {
+            enqueue(((Number) job.get("user_id")).intValue(), (String) job.get("id"));
+        }
+        if (!pending.isEmpty()) {
+            logger.info("Recovered {} generation jobs ({} interrupted while running)", pending.size(), recovered);
+        }
+
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::workLoop, "ai-job-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            workerThreads.add(thread);
+        }
+
+        if (retention > 0 && sweepInterval > 0) {
+            sweepExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ai-job-sweep");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweepExecutor.scheduleWithFixedDelay(this::purgeFinished, 0, sweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        for (Thread thread : workerThreads) {
+            thread.interrupt();
+        }
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdownNow();
+        }
+    }
+
+    // 删除结束时间早于保留期的任务
+    private void purgeFinished() {
+        try {
+            int deleted = jdbcTemplate.update("DELETE FROM magic_sys_ai_job WHERE status IN (?, ?, ?) AND finish_time < datetime('now', ?)",
+                SUCCEEDED, FAILED, CANCELLED, "-" + retention / 1000 + " seconds");
+            if (deleted > 0) {
+                purged.addAndGet(deleted);
+                logger.info("Purged {} finished generation jobs", deleted);
+            }
+        } catch (Exception e) {
+            logger.warn("Purging finished generation jobs failed: {}", e.getMessage());
+        }
+    }
+
+    public String submit(Integer userId, Integer projectId, String requirement, Map<String, String> files) throws Exception {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        jdbcTemplate.update("INSERT INTO magic_sys_ai_job (id, user_id, project_id, requirement, files, status) VALUES (?, ?, ?, ?, ?, ?)",
+            id, userId, projectId, requirement, files != null ? objectMapper.writeValueAsString(files) : null, QUEUED);
+        submitted.incrementAndGet();
+        enqueue(userId, id);
+        return id;
+    }
+
+    // 任务状态，不存在时返回null
+    public Map<String, Object> getJob(String id) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT id, user_id, project_id, status, error, create_time, start_time, finish_time FROM magic_sys_ai_job WHERE id = ?", id);
+        return rows.isEmpty() ? null : toJob(rows.get(0));
+    }
+
+    public List<Map<String, Object>> getJobsByUser(Integer userId, int limit) {
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        for (Map<String, Object> row : jdbcTemplate.queryForList(
+                "SELECT id, user_id, project_id, status, error, create_time, start_time, finish_time FROM magic_sys_ai_job " +
+                "WHERE user_id = ? ORDER BY create_time DESC, rowid DESC LIMIT ?", userId, limit)) {
+            jobs.add(toJob(row));
+        }
+        return jobs;
+    }
+
+    // 已成功任务的生成结果，其他状态返回null
+    public Map<String, Object> getResult(String id) throws Exception {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT result FROM magic_sys_ai_job WHERE id = ? AND status = ?", id, SUCCEEDED);
+        if (rows.isEmpty() || rows.get(0).get("result") == null) {
+            return null;
+        }
+        return objectMapper.readValue((String) rows.get(0).get("result"), new TypeReference<Map<String, Object>>(){});
+    }
+
+    /**
+     * 取消排队中或执行中的任务；执行中的任务会中止正在进行的提供商请求并被中断，且不会再保存生成结果
+     */
+    public boolean cancel(String id) {
+        int updated = jdbcTemplate.update("UPDATE magic_sys_ai_job SET status = ?, finish_time = CURRENT_TIMESTAMP WHERE id = ? AND status IN (?, ?)",
+            CANCELLED, id, QUEUED, RUNNING);
+        if (updated == 0) {
+            return false;
+        }
+        cancelled.incrementAndGet();
+        synchronized (lock) {
+            for (Iterator<ArrayDeque<String>> it = waiting.values().iterator(); it.hasNext(); ) {
+                ArrayDeque<String> queue = it.next();
+                if (queue.remove(id)) {
+                    queued--;
+                    if (queue.isEmpty()) it.remove();
+                    break;
+                }
+            }
+        }
+        synchronized (runningJobs) {
+            RunningJob running = runningJobs.get(id);
+            if (running != null) {
+                running.handle.abort();
+                running.thread.interrupt();
+            }
+        }
+        return true;
+    }
+
+    private void enqueue(Integer userId, String id) {
+        synchronized (lock) {
+            waiting.computeIfAbsent(userId, k -> new ArrayDeque<>()).addLast(id);
+            queued++;
+            lock.notifyAll();
+        }
+    }
+
+    private void workLoop() {
+        while (!stopped) {
+            Job job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                run(job);
+            } finally {
+                synchronized (lock) {
+                    runningPerUser.merge(job.userId, -1, Integer::sum);
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // 按用户轮转取出下一个任务，跳过已达到并发上限的用户
+    private Job take() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                for (Map.Entry<Integer, ArrayDeque<String>> entry : waiting.entrySet()) {
+                    Integer userId = entry.getKey();
+                    if (runningPerUser.getOrDefault(userId, 0) >= maxRunningPerUser) continue;
+
+                    ArrayDeque<String> queue = waiting.remove(userId);
+                    String id = queue.pollFirst();
+                    if (!queue.isEmpty()) {
+                        waiting.put(userId, queue);
+                    }
+                    queued--;
+                    runningPerUser.merge(userId, 1, Integer::sum);
+                    return new Job(id, userId);
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run(Job job) {
+        int started = jdbcTemplate.update("UPDATE magic_sys_ai_job SET status = ?, start_time = CURRENT_TIMESTAMP WHERE id = ? AND status = ?",
+            RUNNING, job.id, QUEUED);
+        if (started == 0) {
+            return;
+        }
+        AIProviderTransport.AbortHandle handle = new AIProviderTransport.AbortHandle();
+        synchronized (runningJobs) {
+            runningJobs.put(job.id, new RunningJob(Thread.currentThread(), handle));
+        }
+        try {
+            Map<String, Object> row = jdbcTemplate.queryForMap("SELECT project_id, requirement, files FROM magic_sys_ai_job WHERE id = ?", job.id);
+            Integer projectId = row.get("project_id") != null ? ((Number) row.get("project_id")).intValue() : null;
+            Map<String, String> files = row.get("files") != null
+                ? objectMapper.readValue((String) row.get("files"), Map.class) : null;
+
+            Map<String, Object> result = AIProviderTransport.abortable(handle,
+                () -> smartCodeGeneratorService.generateModule(projectId, (String) row.get("requirement"), job.userId, files));
+            if (finish(job.id, SUCCEEDED, objectMapper.writeValueAsString(result), null)) {
+                succeeded.incrementAndGet();
+            }
+        } catch (Exception e) {
+            if (stopped) {
+                // 停机中断的任务保持 running 状态，重启后重新排队
+                return;
+            }
+            logger.warn("Generation job {} failed: {}", job.id, e.getMessage());
+            if (finish(job.id, FAILED, null, e.getMessage())) {
+                failed.incrementAndGet();
+            }
+        } finally {
+            synchronized (runningJobs) {
+                runningJobs.remove(job.id);
+                // 清除取消时可能留下的中断标记，避免影响下一个任务
+                Thread.interrupted();
+            }
+        }
+    }
+
+    // 只有仍处于 running 状态的任务才会写入结果，已取消的任务保持取消状态
+    private boolean finish(String id, String status, String result, String error) {
+        return jdbcTemplate.update("UPDATE magic_sys_ai_job SET status = ?, result = ?, error = ?, finish_time = CURRENT_TIMESTAMP WHERE id = ? AND status = ?",
+            status, result, error, id, RUNNING) > 0;
+    }
+
+    private Map<String, Object> toJob(Map<String, Object> row) {
+        Map<String, Object> job = new HashMap<>();
+        job.put("id", row.get("id"));
+        job.put("userId", row.get("user_id"));
+        job.put("projectId", row.get("project_id"));
+        job.put("status", row.get("status"));
+        job.put("error", row.get("error"));
+        job.put("createTime", row.get("create_time"));
+        job.put("startTime", row.get("start_time"));
+        job.put("finishTime", row.get("finish_time"));
+        return job;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", workers);
+        synchronized (lock) {
+            stats.put("queued", queued);
+        }
+        synchronized (runningJobs) {
+            stats.put("running", runningJobs.size());
+        }
+        stats.put("submitted", submitted.get());
+        stats.put("succeeded", succeeded.get());
+        stats.put("failed", failed.get());
+        stats.put("cancelled", cancelled.get());
+        stats.put("purged", purged.get());
+        stats.put("retention", retention);
+        return stats;
+    }
+
+    private static class Job {
+        final String id;
+        final Integer userId;
+
+        Job(String id, Integer userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+    }
+
+    private static class RunningJob {
+        final Thread thread;
+        final AIProviderTransport.AbortHandle handle;
+
+        RunningJob(Thread thread, AIProviderTransport.AbortHandle handle) {
+            this.thread = thread;
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.vueai.server.service;
+
+import com.vueai.server.model.ResolvedAIConfig;
+import com.vueai.server.service.provider.ProviderEndpoint;
+import com.vueai.server.service.provider.ProviderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在用户保存的多个AI配置之间选择本次请求使用的配置：
+ * 先排除上下文窗口放不下本次请求的配置（都放不下时取窗口最大的），再排除熔断中的配置，
+ * 其余按预期延迟（小请求用 p50，大请求用 p95）乘以错误率惩罚、加上按配置中 pricePer1kTokens 计算的成本排序。
+ * 延迟与错误率来自 AIGenerateService 对每个 (提供商, 地址, 模型) 的实际调用统计。
+ * 探测只生成少量token，耗时与完整生成不可比，仅在所有配置都没有实际统计时用于相互比较；
+ * 样本不足的配置按已知配置中最慢的计，通过 explore 积累统计
+ */
+@Service
+public class ModelRouter {
+
+    private static final int WINDOW = 100;
+
+    @Autowired
+    private AIConfigService aiConfigService;
+
+    @Autowired
+    private ProviderRegistry providerRegistry;
+
+    @Autowired
+    private ProviderResilience resilience;
+
+    @Autowired
+    private ProviderProbeService probeService;
+
+    // 为 true 时所有模块生成默认按路由选择配置，请求中的 route 参数可覆盖
+    @Value("${ai.router.enabled:false}")
+    private boolean enabled;
+
+    // 统计样本少于该数量时不使用实时统计
+    @Value("${ai.router.min-samples:5}")
+    private int minSamples;
+
+    // 有一定概率选择样本不足的配置，以便积累统计
+    @Value("${ai.router.explore-ratio:0.05}")
+    private double exploreRatio;
+
+    // 错误率惩罚系数：预期延迟乘以 (1 + 错误率 * error-penalty)
+    @Value("${ai.router.error-penalty:4.0}")
+    private double errorPenalty;
+
+    // 请求token数达到该值时按 p95 延迟排序
+    @Value("${ai.router.large-request-tokens:4000}")
+    private int largeRequestTokens;
+
+    // 成本换算为延迟的系数：每1单位价格相当于多少毫秒
+    @Value("${ai.router.cost-weight:1000}")
+    private double costWeight;
+
+    @Value("${ai.context.default-window:8192}")
+    private int defaultContextWindow;
+
+    // (提供商, 地址, 模型) -> 调用统计
+    private final Map<String, TargetStats> stats = new ConcurrentHashMap<>();
+
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong explored = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String targetKey(String provider, String url, String model) {
+        return provider + "|" + url + "|" + model;
+    }
+
+    /**
+     * 记录一次提供商调用的结果，由 AIGenerateService 在每次实际请求后调用
+     */
+    public void record(String targetKey, long latencyMs, boolean success) {
+        stats.computeIfAbsent(targetKey, k -> new TargetStats()).record(latencyMs, success);
+    }
+
+    /**
+     * 为预计 requestTokens 个输入token的请求选择配置，configs 为空时返回null
+     */
+    public Decision route(List<ResolvedAIConfig> configs, int requestTokens) {
+        if (configs.isEmpty()) return null;
+        routed.incrementAndGet();
+        if (configs.size() == 1) {
+            return new Decision(configs.get(0), "only");
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (ResolvedAIConfig config : configs) {
+            candidates.add(candidate(config));
+        }
+
+        // 1. 上下文窗口放得下本次请求的配置，都放不下时取窗口最大的
+        List<Candidate> fitting = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (candidate.window - candidate.maxOutput >= requestTokens) fitting.add(candidate);
+        }
+        if (fitting.isEmpty()) {
+            oversized.incrementAndGet();
+            Candidate largest = Collections.max(candidates, Comparator.comparingInt(c -> c.window - c.maxOutput));
+            return new Decision(largest.config, "largest-window");
+        }
+
+        // 2. 排除熔断中的配置，全部熔断时不排除
+        List<Candidate> healthy = new ArrayList<>();
+        for (Candidate candidate : fitting) {
+            if (!resilience.isOpen(candidate.breakerKey)) healthy.add(candidate);
+        }
+        if (healthy.isEmpty()) healthy = fitting;
+        if (healthy.size() == 1) {
+            return new Decision(healthy.get(0).config, "only-fitting");
+        }
+
+        // 3. 以一定概率试用样本不足的配置
+        List<Candidate> unknown = new ArrayList<>();
+        for (Candidate candidate : healthy) {
+            if (candidate.samples < minSamples) unknown.add(candidate);
+        }
+        if (!unknown.isEmpty() && ThreadLocalRandom.current().nextDouble() < exploreRatio) {
+            explored.incrementAndGet();
+            return new Decision(unknown.get(ThreadLocalRandom.current().nextInt(unknown.size())).config, "explore");
+        }
+
+        // 4. 按预期延迟、错误率和成本打分；没有实际延迟数据的配置按已知配置中最慢的计
+        boolean large = requestTokens >= largeRequestTokens;
+        double slowest = 0;
+        for (Candidate candidate : healthy) {
+            Double latency = large ? candidate.p95 : candidate.p50;
+            if (latency != null) slowest = Math.max(slowest, latency);
+        }
+        if (slowest == 0) {
+            return byProbe(healthy);
+        }
+        Candidate best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Candidate candidate : healthy) {
+            Double latency = large ? candidate.p95 : candidate.p50;
+            double score = (latency != null ? latency : slowest) * (1 + candidate.errorRate * errorPenalty)
+                + candidate.price * requestTokens / 1000.0 * costWeight;
+            if (score < bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return new Decision(best.config, large ? "p95" : "p50");
+    }
+
+    // 都没有实际统计时按探测耗时比较；也没有探测结果时保持原有顺序（活动配置在前）
+    private Decision byProbe(List<Candidate> candidates) {
+        Candidate best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Candidate candidate : candidates) {
+            if (candidate.probeMs == null) continue;
+            double score = candidate.probeMs * (1 + candidate.errorRate * errorPenalty);
+            if (score < bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best != null ? new Decision(best.config, "probe") : new Decision(candidates.get(0).config, "no-data");
+    }
+
+    private Candidate candidate(ResolvedAIConfig config) {
+        ProviderEndpoint endpoint = providerRegistry.resolve(config.getProviderId(), config.getModelId(), config.getSettings());
+        Candidate candidate = new Candidate();
+        candidate.config = config;
+        candidate.breakerKey = ProviderResilience.breakerKey(endpoint.getName(), endpoint.getUrl());
+        candidate.window = config.getContextWindow() != null ? config.getContextWindow()
+            : aiConfigService.getContextWindow(config.getProviderId(), config.getModelId(), defaultContextWindow);
+        candidate.maxOutput = endpoint.getAdapter().capabilities().getMaxOutputTokens();
+        Object price = config.getSettings().get("pricePer1kTokens");
+        candidate.price = price != null ? Double.parseDouble(price.toString()) : 0;
+
+        TargetStats target = stats.get(targetKey(endpoint.getName(), endpoint.getUrl(), endpoint.getModel()));
+        if (target != null) {
+            target.fill(candidate);
+        }
+        if (candidate.samples < minSamples) {
+            // 样本不足时不使用实际统计的延迟；探测耗时只与其他配置的探测耗时比较，探测失败的配置视为错误率高
+            candidate.p50 = null;
+            candidate.p95 = null;
+            Map<String, Object> probe = probeService.getLatest(config.getId());
+            if (probe != null && probe.get("totalMs") instanceof Number) {
+                candidate.probeMs = ((Number) probe.get("totalMs")).doubleValue();
+            }
+            if (probe != null && !Boolean.TRUE.equals(probe.get("success"))) {
+                candidate.errorRate = Math.max(candidate.errorRate, 1.0);
+            }
+        }
+        return candidate;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("routed", routed.get());
+        result.put("explored", explored.get());
+        result.put("oversized", oversized.get());
+        Map<String, Object> targets = new HashMap<>();
+        for (Map.Entry<String, TargetStats> entry : stats.entrySet()) {
+            Candidate snapshot = new Candidate();
+            entry.getValue().fill(snapshot);
+            Map<String, Object> target = new HashMap<>();
+            target.put("samples", snapshot.samples);
+            target.put("p50", snapshot.p50);
+            target.put("p95", snapshot.p95);
+            target.put("errorRate", snapshot.errorRate);
+            targets.put(entry.getKey(), target);
+        }
+        result.put("targets", targets);
+        return result;
+    }
+
+    public static class Decision {
+        private final ResolvedAIConfig config;
+        private final String reason;
+
+        Decision(ResolvedAIConfig config, String reason) {
+            this.config = config;
+            this.reason = reason;
+        }
+
+        public ResolvedAIConfig getConfig() {
+            return config;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private static class Candidate {
+        ResolvedAIConfig config;
+        String breakerKey;
+        int window;
+        int maxOutput;
+        double price;
+        int samples;
+        Double p50;
+        Double p95;
+        Double probeMs;
+        double errorRate;
+    }
+
+    // 最近 WINDOW 次调用的延迟（仅成功的调用）与成败
+    private static class TargetStats {
+        private final long[] latencies = new long[WINDOW];
+        private int latencyCount;
+        private int latencyIndex;
+        private final boolean[] outcomes = new boolean[WINDOW];
+        private int outcomeCount;
+        private int outcomeIndex;
+        private int failures;
+
+        synchronized void record(long latencyMs, boolean success) {
+            if (success) {
+                latencies[latencyIndex] = latencyMs;
+                latencyIndex = (latencyIndex + 1) % WINDOW;
+                latencyCount = Math.min(WINDOW, latencyCount + 1);
+            }
+            if (outcomeCount == WINDOW && !outcomes[outcomeIndex]) failures--;
+            outcomes[outcomeIndex] = success;
+            if (!success) failures++;
+            outcomeIndex = (outcomeIndex + 1) % WINDOW;
+            outcomeCount = Math.min(WINDOW, outcomeCount + 1);
+        }
+
+        synchronized void fill(Candidate candidate) {
+            candidate.samples = outcomeCount;
+            candidate.errorRate = outcomeCount > 0 ? (double) failures / outcomeCount : 0;
+            if (latencyCount > 0) {
+                long[] sorted = Arrays.copyOf(latencies, latencyCount);
+                Arrays.sort(sorted);
+                candidate.p50 = (double) sorted[(latencyCount - 1) / 2];
+                candidate.p95 = (double) sorted[(int) Math.ceil(latencyCount * 0.95) - 1];
+            }
+        }
+    }
+}
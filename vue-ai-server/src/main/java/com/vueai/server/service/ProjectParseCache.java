@@ -0,0 +1,97 @@
+package com.vueai.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.vueai.server.model.ProjectTree;
+import com.vueai.server.util.ParsedProject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * 项目解析缓存：以项目内容的 SHA-256 为键缓存 ParsedProject，
+ * 同一项目内容的多次生成只解析一次；按内容字符数加权，超过 ai.project-cache.max-weight 时淘汰
+ */
+@Component
+public class ProjectParseCache {
+
+    @Value("${ai.project-cache.max-weight:50000000}")
+    private long maxWeight;
+
+    private Cache<String, ParsedProject> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, ParsedProject project) -> project.getWeight())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 获取项目内容（JSON字符串或 flat map）的解析结果，未命中时解析并缓存
+     */
+    public ParsedProject get(Object contentObj) throws Exception {
+        String key = key(contentObj);
+        ParsedProject project = cache.getIfPresent(key);
+        if (project == null) {
+            project = ParsedProject.parse(contentObj);
+            cache.put(key, project);
+        }
+        return project;
+    }
+
+    /**
+     * 保存项目后直接放入新内容的解析结果，下次读取同一内容时无需再解析。
+     * tree 此后不能再被修改
+     */
+    public void put(String contentJson, ProjectTree tree) {
+        cache.put(key(contentJson), ParsedProject.of(tree));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String key(Object contentObj) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (contentObj instanceof Map) {
+                // flat map 的目录结构依赖文件顺序，按迭代顺序计算
+                digest.update((byte) 'm');
+                for (Map.Entry<String, String> file : ((Map<String, String>) contentObj).entrySet()) {
+                    digest.update(String.valueOf(file.getKey()).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(String.valueOf(file.getValue()).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+            } else {
+                digest.update((byte) 's');
+                digest.update(String.valueOf(contentObj).getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to hash project content", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> map = new HashMap<>();
+        map.put("size", cache.estimatedSize());
+        map.put("weight", cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+        map.put("maxWeight", maxWeight);
+        map.put("hits", stats.hitCount());
+        map.put("misses", stats.missCount());
+        map.put("hitRatio", stats.hitRate());
+        map.put("evictions", stats.evictionCount());
+        return map;
+    }
+}
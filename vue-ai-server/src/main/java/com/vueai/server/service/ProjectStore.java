@@ -0,0 +1,652 @@
+package com.vueai.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.vueai.server.model.ProjectTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目内容存储：每个文件内容按 SHA-256 只在 magic_sys_blob 中存一份，项目的每个版本在
+ * magic_sys_project_manifest 中保存一份清单（与原内容结构相同，文件内容替换为哈希），保存时只写入新出现的文件内容。
+ * 读取时按清单拼装出与原 content 字段相同格式的JSON；尚未迁移的项目仍从 magic_sys_project.content 读取，下次保存时迁移
+ */
+@Service
+public class ProjectStore {
+
+    private final Logger logger = LoggerFactory.getLogger(ProjectStore.class);
+
+    public static final String TREE = "tree";
+    public static final String FLAT = "flat";
+
+    // SQLite 单条语句的参数上限为999
+    private static final int BATCH = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 每个项目保留的历史版本清单数
+    @Value("${ai.project-store.keep-manifests:20}")
+    private int keepManifests;
+
+    @Value("${ai.project-store.cache-max-weight:50000000}")
+    private long cacheMaxWeight;
+
+    // 项目ID:版本 -> 拼装好的内容，版本号每次保存都会变化，无需失效
+    private Cache<String, String> assembled;
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong blobsWritten = new AtomicLong();
+    private final AtomicLong blobsReused = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesReused = new AtomicLong();
+    private final AtomicLong legacyReads = new AtomicLong();
+    private final AtomicLong patches = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        assembled = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxWeight)
+                .weigher((String key, String content) -> content.length())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 读取项目当前内容与版本号，项目不存在时返回null
+     */
+    public Snapshot read(Integer projectId) throws Exception {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT content, IFNULL(version, 0) AS version FROM magic_sys_project WHERE id = ?", projectId);
+        if (rows.isEmpty()) return null;
+        int version = ((Number) rows.get(0).get("version")).intValue();
+        String cacheKey = projectId + ":" + version;
+        String content = assembled.getIfPresent(cacheKey);
+        if (content != null) {
+            return new Snapshot(content, version);
+        }
+        Manifest manifest = manifest(projectId, version);
+        if (manifest == null) {
+            legacyReads.incrementAndGet();
+            return new Snapshot((String) rows.get(0).get("content"), version);
+        }
+        content = assemble(manifest);
+        assembled.put(cacheKey, content);
+        return new Snapshot(content, version);
+    }
+
+    /**
+     * 保存项目内容：写入新出现的文件内容和新版本的清单，expectedVersion 不为null时按版本号做乐观写入。
+     * 返回新版本号，版本冲突时返回 -1
+     */
+    @Transactional
+    public int save(Integer projectId, String contentJson, Integer expectedVersion) throws Exception {
+        ProjectTree tree = null;
+        Map<String, String> flat = null;
+        try {
+            if (contentJson != null && contentJson.trim().startsWith("{")) {
+                flat = objectMapper.readValue(contentJson, new TypeReference<LinkedHashMap<String, String>>(){});
+            } else if (contentJson != null && contentJson.trim().startsWith("[")) {
+                tree = ProjectTree.parse(contentJson);
+            }
+        } catch (Exception e) {
+            // 不是可识别的项目结构，按原样保存
+        }
+        if (tree == null && flat == null) {
+            return bumpVersion(projectId, contentJson, expectedVersion);
+        }
+        return save(projectId, tree, flat, contentJson, expectedVersion, true);
+    }
+
+    /**
+     * 保存已构建好的项目树，contentJson 为 tree.toJson() 的结果
+     */
+    @Transactional
+    public int save(Integer projectId, ProjectTree tree, String contentJson, Integer expectedVersion) throws Exception {
+        return save(projectId, tree, null, contentJson, expectedVersion, true);
+    }
+
+    // bump 为 false 时仅把当前版本迁移到新存储，版本号不变
+    private int save(Integer projectId, ProjectTree tree, Map<String, String> flat, String contentJson,
+                     Integer expectedVersion, boolean bump) throws Exception {
+        // 1. 计算清单并收集文件内容
+        Map<String, String> blobs = new HashMap<>();
+        String format;
+        String manifestJson;
+        if (tree != null) {
+            format = TREE;
+            manifestJson = tree.mapContents(content -> {
+                String hash = sha256(content);
+                blobs.put(hash, content);
+                return hash;
+            }).toJson();
+        } else {
+            format = FLAT;
+            Map<String, String> hashes = new LinkedHashMap<>();
+            for (Map.Entry<String, String> file : flat.entrySet()) {
+                String content = file.getValue() != null ? file.getValue() : "";
+                String hash = sha256(content);
+                blobs.put(hash, content);
+                hashes.put(file.getKey(), hash);
+            }
+            manifestJson = objectMapper.writeValueAsString(hashes);
+        }
+
+        // 2. 只写入数据库中还没有的文件内容
+        writeBlobs(blobs);
+
+        // 3. 更新版本号，旧的 content 字段清空
+        if (!bump) {
+            // 从 applyChanges 迁移时随调用方的事务一起提交；从 getManifest/readFile 迁移时没有事务，两条语句各自提交，
+            // 先写清单再清空 content，中途失败时清单与 content 内容一致，不影响读取。
+            // 清单按当前 content 覆盖写入，不保留同一版本已有的旧清单
+            jdbcTemplate.update("INSERT OR REPLACE INTO magic_sys_project_manifest (project_id, version, format, manifest) VALUES (?, ?, ?, ?)",
+                projectId, expectedVersion, format, manifestJson);
+            jdbcTemplate.update("UPDATE magic_sys_project SET content = NULL WHERE id = ? AND IFNULL(version, 0) = ?",
+                projectId, expectedVersion);
+            return expectedVersion;
+        }
+        int version = bumpVersion(projectId, null, expectedVersion);
+        if (version < 0) return -1;
+        writeManifest(projectId, version, format, manifestJson);
+        cacheAfterCommit(projectId + ":" + version, contentJson);
+        saves.incrementAndGet();
+        return version;
+    }
+
+    // 事务提交后再放入缓存：提交失败时该版本并不存在，下一次保存会重新使用同一版本号
+    private void cacheAfterCommit(String cacheKey, String content) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    assembled.put(cacheKey, content);
+                }
+            });
+        } else {
+            assembled.put(cacheKey, content);
+        }
+    }
+
+    private void writeManifest(Integer projectId, int version, String format, String manifestJson) {
+        jdbcTemplate.update("INSERT OR REPLACE INTO magic_sys_project_manifest (project_id, version, format, manifest) VALUES (?, ?, ?, ?)",
+            projectId, version, format, manifestJson);
+        jdbcTemplate.update("DELETE FROM magic_sys_project_manifest WHERE project_id = ? AND version <= ?", projectId, version - keepManifests);
+    }
+
+    /**
+     * 项目当前版本号，项目不存在时返回null
+     */
+    public Integer getVersion(Integer projectId) {
+        List<Integer> versions = jdbcTemplate.queryForList(
+            "SELECT IFNULL(version, 0) FROM magic_sys_project WHERE id = ?", Integer.class, projectId);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    /**
+     * 按路径新增/更新、重命名、删除文件：只在当前版本的清单上修改，写入新的文件内容和清单，不拼装完整项目。
+     * expectedVersion 不为null时与当前版本不一致即为冲突。返回新版本号，冲突时返回 -1，项目不存在时返回null；
+     * 操作无效（如文件不存在）时抛出 IllegalArgumentException，整批修改都不生效
+     */
+    @Transactional
+    public Integer applyChanges(Integer projectId, List<FileChange> changes, Integer expectedVersion) throws Exception {
+        Integer version = getVersion(projectId);
+        if (version == null) return null;
+        if (expectedVersion != null && !expectedVersion.equals(version)) return -1;
+        Manifest manifest = manifest(projectId, version);
+        if (manifest == null) {
+            Snapshot snapshot = read(projectId);
+            if (snapshot == null) return null;
+            if (snapshot.getVersion() != version) return -1;
+            if (!migrate(projectId, snapshot)) {
+                throw new IllegalArgumentException("项目内容不是可识别的文件结构");
+            }
+            manifest = manifest(projectId, version);
+        }
+
+        Map<String, String> blobs = new HashMap<>();
+        String manifestJson;
+        if (FLAT.equals(manifest.format)) {
+            Map<String, String> files = objectMapper.readValue(manifest.json, new TypeReference<LinkedHashMap<String, String>>(){});
+            for (FileChange change : changes) {
+                files = apply(files, change, blobs);
+            }
+            manifestJson = objectMapper.writeValueAsString(files);
+        } else {
+            ProjectTree tree = ProjectTree.parse(manifest.json);
+            for (FileChange change : changes) {
+                apply(tree, change, blobs);
+            }
+            manifestJson = tree.toJson();
+        }
+
+        writeBlobs(blobs);
+        int newVersion = bumpVersion(projectId, null, version);
+        if (newVersion < 0) return -1;
+        writeManifest(projectId, newVersion, manifest.format, manifestJson);
+        patches.incrementAndGet();
+        return newVersion;
+    }
+
+    private void apply(ProjectTree tree, FileChange change, Map<String, String> blobs) {
+        String path = change.getPath();
+        switch (change.getOp()) {
+            case FileChange.UPSERT:
+                ProjectTree.Node node = tree.get(path);
+                if (node != null && node.isFolder()) {
+                    throw new IllegalArgumentException("路径是目录: " + path);
+                }
+                for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+                    ProjectTree.Node parent = tree.get(path.substring(0, i));
+                    if (parent != null && !parent.isFolder()) {
+                        throw new IllegalArgumentException("上级路径是文件: " + path.substring(0, i));
+                    }
+                }
+                tree.putFile(path, hash(change.getContent(), blobs));
+                break;
+            case FileChange.RENAME:
+                if (tree.get(path) == null) {
+                    throw new IllegalArgumentException("文件不存在: " + path);
+                }
+                if (!tree.move(path, change.getTo())) {
+                    throw new IllegalArgumentException("无法重命名为: " + change.getTo());
+                }
+                break;
+            default:
+                if (!tree.remove(path)) {
+                    throw new IllegalArgumentException("文件不存在: " + path);
+                }
+        }
+    }
+
+    // flat map 中只有文件，目录操作按路径前缀处理
+    private Map<String, String> apply(Map<String, String> files, FileChange change, Map<String, String> blobs) {
+        String path = change.getPath();
+        switch (change.getOp()) {
+            case FileChange.UPSERT:
+                files.put(path, hash(change.getContent(), blobs));
+                return files;
+            case FileChange.RENAME:
+                String to = change.getTo();
+                if (!under(files.keySet(), path)) {
+                    throw new IllegalArgumentException("文件不存在: " + path);
+                }
+                if (under(files.keySet(), to) || to.startsWith(path + "/")) {
+                    throw new IllegalArgumentException("无法重命名为: " + to);
+                }
+                Map<String, String> renamed = new LinkedHashMap<>();
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    String key = file.getKey();
+                    renamed.put(key.equals(path) || key.startsWith(path + "/") ? to + key.substring(path.length()) : key, file.getValue());
+                }
+                return renamed;
+            default:
+                if (!files.keySet().removeIf(key -> key.equals(path) || key.startsWith(path + "/"))) {
+                    throw new IllegalArgumentException("文件不存在: " + path);
+                }
+                return files;
+        }
+    }
+
+    private static boolean under(Set<String> paths, String path) {
+        for (String key : paths) {
+            if (key.equals(path) || key.startsWith(path + "/")) return true;
+        }
+        return false;
+    }
+
+    private static String hash(String content, Map<String, String> blobs) {
+        String value = content != null ? content : "";
+        String hash = sha256(value);
+        blobs.put(hash, value);
+        return hash;
+    }
+
+    private int bumpVersion(Integer projectId, String content, Integer expectedVersion) {
+        int updated = expectedVersion != null
+            ? jdbcTemplate.update("UPDATE magic_sys_project SET content = ?, version = IFNULL(version, 0) + 1 WHERE id = ? AND IFNULL(version, 0) = ?",
+                content, projectId, expectedVersion)
+            : jdbcTemplate.update("UPDATE magic_sys_project SET content = ?, version = IFNULL(version, 0) + 1 WHERE id = ?",
+                content, projectId);
+        if (updated == 0) return -1;
+        return jdbcTemplate.queryForObject("SELECT version FROM magic_sys_project WHERE id = ?", Integer.class, projectId);
+    }
+
+    private void writeBlobs(Map<String, String> blobs) {
+        List<String> hashes = new ArrayList<>(blobs.keySet());
+        Set<String> existing = new HashSet<>();
+        for (int i = 0; i < hashes.size(); i += BATCH) {
+            List<String> batch = hashes.subList(i, Math.min(hashes.size(), i + BATCH));
+            existing.addAll(jdbcTemplate.queryForList(
+                "SELECT hash FROM magic_sys_blob WHERE hash IN (" + placeholders(batch.size()) + ")", String.class, batch.toArray()));
+        }
+        List<Object[]> inserts = new ArrayList<>();
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            int size = blob.getValue().length();
+            if (existing.contains(blob.getKey())) {
+                blobsReused.incrementAndGet();
+                bytesReused.addAndGet(size);
+            } else {
+                inserts.add(new Object[]{blob.getKey(), blob.getValue(), size});
+                blobsWritten.incrementAndGet();
+                bytesWritten.addAndGet(size);
+            }
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT OR IGNORE INTO magic_sys_blob (hash, content, size) VALUES (?, ?, ?)", inserts);
+        }
+    }
+
+    /**
+     * 项目当前版本的文件清单：路径、哈希、大小，供客户端按需逐个获取文件。
+     * 尚未迁移的项目先迁移到新存储；项目不存在时返回null
+     */
+    public Map<String, Object> getManifest(Integer projectId) throws Exception {
+        Snapshot snapshot = read(projectId);
+        if (snapshot == null) return null;
+        Manifest manifest = manifest(projectId, snapshot.getVersion());
+        if (manifest == null && migrate(projectId, snapshot)) {
+            manifest = manifest(projectId, snapshot.getVersion());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("projectId", projectId);
+        result.put("version", snapshot.getVersion());
+        if (manifest == null) {
+            // 内容不是可识别的项目结构
+            result.put("format", null);
+            result.put("files", Collections.emptyList());
+            return result;
+        }
+        Map<String, String> files = manifest.files(objectMapper);
+        Map<String, Integer> sizes = blobSizes(new HashSet<>(files.values()));
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("path", file.getKey());
+            entry.put("hash", file.getValue());
+            entry.put("size", sizes.get(file.getValue()));
+            entries.add(entry);
+        }
+        result.put("format", manifest.format);
+        result.put("files", entries);
+        return result;
+    }
+
+    /**
+     * 读取项目当前版本中的单个文件，文件不存在时返回null
+     */
+    public String readFile(Integer projectId, String path) throws Exception {
+        Snapshot snapshot = read(projectId);
+        if (snapshot == null) return null;
+        Manifest manifest = manifest(projectId, snapshot.getVersion());
+        if (manifest == null && migrate(projectId, snapshot)) {
+            manifest = manifest(projectId, snapshot.getVersion());
+        }
+        if (manifest == null) {
+            // 内容不是可识别的项目结构
+            return null;
+        }
+        String hash = manifest.files(objectMapper).get(path);
+        if (hash == null) return null;
+        return hash.isEmpty() ? "" : readBlob(hash);
+    }
+
+    // 按哈希读取文件内容，内容不可变，客户端可长期缓存
+    public String readBlob(String hash) {
+        List<String> contents = jdbcTemplate.queryForList("SELECT content FROM magic_sys_blob WHERE hash = ?", String.class, hash);
+        return contents.isEmpty() ? null : contents.get(0);
+    }
+
+    // 删除项目时清理其清单；文件内容可能被其他项目共享，保留
+    public void delete(Integer projectId) {
+        jdbcTemplate.update("DELETE FROM magic_sys_project_manifest WHERE project_id = ?", projectId);
+    }
+
+    // 旧项目按读取时的版本迁移到新存储，内容不是可识别的项目结构时返回false
+    private boolean migrate(Integer projectId, Snapshot snapshot) throws Exception {
+        String content = snapshot.getContent();
+        try {
+            if (content != null && content.trim().startsWith("[")) {
+                save(projectId, ProjectTree.parse(content), null, content, snapshot.getVersion(), false);
+            } else if (content != null && content.trim().startsWith("{")) {
+                Map<String, String> flat = objectMapper.readValue(content, new TypeReference<LinkedHashMap<String, String>>(){});
+                save(projectId, null, flat, content, snapshot.getVersion(), false);
+            } else {
+                return false;
+            }
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+        logger.info("Migrated project {} version {} to blob storage", projectId, snapshot.getVersion());
+        return true;
+    }
+
+    private Manifest manifest(Integer projectId, int version) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT format, manifest FROM magic_sys_project_manifest WHERE project_id = ? AND version = ?", projectId, version);
+        if (rows.isEmpty()) return null;
+        return new Manifest((String) rows.get(0).get("format"), (String) rows.get(0).get("manifest"));
+    }
+
+    // 按清单取出全部文件内容，拼装成原格式的JSON
+    private String assemble(Manifest manifest) throws Exception {
+        if (FLAT.equals(manifest.format)) {
+            Map<String, String> hashes = objectMapper.readValue(manifest.json, new TypeReference<LinkedHashMap<String, String>>(){});
+            Map<String, String> blobs = blobs(new HashSet<>(hashes.values()));
+            Map<String, String> files = new LinkedHashMap<>();
+            for (Map.Entry<String, String> file : hashes.entrySet()) {
+                files.put(file.getKey(), blobs.get(file.getValue()));
+            }
+            return objectMapper.writeValueAsString(files);
+        }
+        ProjectTree tree = ProjectTree.parse(manifest.json);
+        Set<String> hashes = new HashSet<>(tree.toFlatMap().values());
+        Map<String, String> blobs = blobs(hashes);
+        return tree.mapContents(hash -> blobs.containsKey(hash) ? blobs.get(hash) : missing(hash, blobs)).toJson();
+    }
+
+    // 同一目录下重名的节点不在 toFlatMap 中，遇到时单独读取
+    private String missing(String hash, Map<String, String> blobs) {
+        String content = readBlob(hash);
+        if (content == null) {
+            throw new IllegalStateException("项目文件内容缺失: " + hash);
+        }
+        blobs.put(hash, content);
+        return content;
+    }
+
+    private Map<String, String> blobs(Set<String> hashes) {
+        Map<String, String> blobs = new HashMap<>();
+        List<String> list = new ArrayList<>(hashes);
+        for (int i = 0; i < list.size(); i += BATCH) {
+            List<String> batch = list.subList(i, Math.min(list.size(), i + BATCH));
+            jdbcTemplate.query("SELECT hash, content FROM magic_sys_blob WHERE hash IN (" + placeholders(batch.size()) + ")",
+                rs -> {
+                    blobs.put(rs.getString("hash"), rs.getString("content"));
+                }, batch.toArray());
+        }
+        return blobs;
+    }
+
+    private Map<String, Integer> blobSizes(Set<String> hashes) {
+        Map<String, Integer> sizes = new HashMap<>();
+        List<String> list = new ArrayList<>(hashes);
+        for (int i = 0; i < list.size(); i += BATCH) {
+            List<String> batch = list.subList(i, Math.min(list.size(), i + BATCH));
+            jdbcTemplate.query("SELECT hash, size FROM magic_sys_blob WHERE hash IN (" + placeholders(batch.size()) + ")",
+                rs -> {
+                    sizes.put(rs.getString("hash"), rs.getInt("size"));
+                }, batch.toArray());
+        }
+        return sizes;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static String sha256(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to hash file content", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("saves", saves.get());
+        stats.put("blobsWritten", blobsWritten.get());
+        stats.put("blobsReused", blobsReused.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        stats.put("bytesReused", bytesReused.get());
+        stats.put("legacyReads", legacyReads.get());
+        stats.put("patches", patches.get());
+        stats.put("assembledCacheSize", assembled.estimatedSize());
+        stats.put("assembledCacheHitRatio", assembled.stats().hitRate());
+        return stats;
+    }
+
+    /**
+     * 单个文件修改：upsert（path, content）、rename（path -> to）、delete（path），路径为项目内的相对路径
+     */
+    public static class FileChange {
+        public static final String UPSERT = "upsert";
+        public static final String RENAME = "rename";
+        public static final String DELETE = "delete";
+
+        private final String op;
+        private final String path;
+        private final String to;
+        private final String content;
+
+        private FileChange(String op, String path, String to, String content) {
+            this.op = op;
+            this.path = normalize(path);
+            this.to = RENAME.equals(op) ? normalize(to) : null;
+            this.content = content;
+        }
+
+        public static FileChange upsert(String path, String content) {
+            return new FileChange(UPSERT, path, null, content);
+        }
+
+        public static FileChange rename(String path, String to) {
+            return new FileChange(RENAME, path, to, null);
+        }
+
+        public static FileChange delete(String path) {
+            return new FileChange(DELETE, path, null, null);
+        }
+
+        // {"op": "upsert|rename|delete", "path": ..., "to": ..., "content": ...}，rename 也接受 from 作为源路径
+        public static FileChange of(Map<String, Object> change) {
+            String op = change.get("op") != null ? change.get("op").toString() : UPSERT;
+            String path = (String) (change.get("path") != null ? change.get("path") : change.get("from"));
+            switch (op) {
+                case UPSERT:
+                    return upsert(path, (String) change.get("content"));
+                case RENAME:
+                    return rename(path, (String) change.get("to"));
+                case DELETE:
+                    return delete(path);
+                default:
+                    throw new IllegalArgumentException("不支持的操作: " + op);
+            }
+        }
+
+        private static String normalize(String path) {
+            String normalized = path != null ? path.trim().replace('\\', '/') : "";
+            while (normalized.startsWith("/")) normalized = normalized.substring(1);
+            while (normalized.endsWith("/")) normalized = normalized.substring(0, normalized.length() - 1);
+            if (normalized.isEmpty() || normalized.contains("//") || ("/" + normalized + "/").contains("/../")) {
+                throw new IllegalArgumentException("无效的路径: " + path);
+            }
+            return normalized;
+        }
+
+        public String getOp() {
+            return op;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
+    // 项目内容及其版本号
+    public static class Snapshot {
+        private final String content;
+        private final int version;
+
+        Snapshot(String content, int version) {
+            this.content = content;
+            this.version = version;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    private static class Manifest {
+        final String format;
+        final String json;
+
+        Manifest(String format, String json) {
+            this.format = format;
+            this.json = json;
+        }
+
+        // 路径 -> 哈希
+        Map<String, String> files(ObjectMapper objectMapper) throws Exception {
+            if (FLAT.equals(format)) {
+                return objectMapper.readValue(json, new TypeReference<LinkedHashMap<String, String>>(){});
+            }
+            return ProjectTree.parse(json).toFlatMap();
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.vueai.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vueai.server.model.AIConfig;
+import com.vueai.server.model.ResolvedAIConfig;
+import com.vueai.server.service.provider.ProviderAdapter;
+import com.vueai.server.service.provider.ProviderEndpoint;
+import com.vueai.server.service.provider.ProviderRegistry;
+import com.vueai.server.util.PromptContextBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * AI配置的延迟探测：冷启动请求自行完成 DNS 解析、TCP 连接和 TLS 握手并分别计时，
+ * 热请求走共享连接池（先发一次预热请求建立连接）。每次请求记录首个token时间、生成速度和总耗时，
+ * 结果按配置保存在 magic_sys_ai_config_probe 表中，最近一次结果同时保存在内存中供选择配置时使用
+ */
+@Service
+public class ProviderProbeService {
+
+    private final Logger logger = LoggerFactory.getLogger(ProviderProbeService.class);
+
+    private static final String DEFAULT_PROMPT = "Hello, write a simple Vue component";
+    // 每个配置保留的探测记录数
+    private static final int HISTORY = 20;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ProviderRegistry providerRegistry;
+
+    @Autowired
+    private AIProviderTransport transport;
+
+    @Autowired
+    private ProviderResilience resilience;
+
+    @Autowired
+    private ProviderRateLimiter rateLimiter;
+
+    @Value("${ai.probe.cold-runs:1}")
+    private int defaultColdRuns;
+
+    @Value("${ai.probe.warm-runs:3}")
+    private int defaultWarmRuns;
+
+    @Value("${ai.probe.max-runs:10}")
+    private int maxRuns;
+
+    // 探测请求的最大输出token，避免探测消耗过多额度
+    @Value("${ai.probe.max-tokens:64}")
+    private int probeMaxTokens;
+
+    @Value("${ai.probe.timeout:30000}")
+    private int timeout;
+
+    // 配置ID -> 最近一次探测结果
+    private final Map<Integer, Map<String, Object>> latest = new ConcurrentHashMap<>();
+
+    // 在建表完成、应用就绪后加载各配置最近一次的探测结果
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadLatest() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT config_id, result FROM magic_sys_ai_config_probe WHERE id IN (SELECT MAX(id) FROM magic_sys_ai_config_probe GROUP BY config_id)");
+        for (Map<String, Object> row : rows) {
+            try {
+                latest.put(((Number) row.get("config_id")).intValue(), readResult((String) row.get("result")));
+            } catch (Exception e) {
+                logger.warn("Failed to load probe result of config {}: {}", row.get("config_id"), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 探测一个AI配置：coldRuns 次新建连接的请求和 warmRuns 次复用连接的请求（小于0时使用默认次数）。
+     * 配置有ID时保存结果。探测失败不抛出异常，结果中 success=false 并带有错误信息
+     */
+    public Map<String, Object> probe(AIConfig config, Map<String, Object> settings, String prompt, int coldRuns, int warmRuns) {
+        coldRuns = Math.min(maxRuns, coldRuns < 0 ? defaultColdRuns : coldRuns);
+        warmRuns = Math.min(maxRuns, warmRuns < 0 ? defaultWarmRuns : warmRuns);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("configId", config.getId());
+        result.put("provider", config.getProviderId());
+        result.put("model", config.getModelId());
+        List<Run> cold = new ArrayList<>();
+        List<Run> warm = new ArrayList<>();
+        try {
+            ProviderEndpoint endpoint = providerRegistry.resolve(config.getProviderId(), config.getModelId(), settings);
+            ProviderAdapter adapter = endpoint.getAdapter();
+            boolean stream = adapter.capabilities().isStreaming();
+            List<Map<String, Object>> messages = Collections.singletonList(message(prompt != null && !prompt.isEmpty() ? prompt : DEFAULT_PROMPT));
+            int maxTokens = Math.min(probeMaxTokens, adapter.capabilities().getMaxOutputTokens());
+            Map<String, Object> body = new LinkedHashMap<>(adapter.encode(endpoint, messages, stream, maxTokens));
+            // 每次请求（包括预热）都按该 Key 申请限流配额，排队时间不计入耗时
+            String bucketKey = ProviderRateLimiter.bucketKey(endpoint.getName(), (String) settings.get("apiKey"));
+            String userKey = config.getUserId() != null ? "user:" + config.getUserId() : "anonymous";
+            long estimatedTokens = messages.get(0).get("content").toString().length() / 4 + maxTokens;
+            result.put("url", endpoint.getUrl());
+            result.put("breakerKey", ProviderResilience.breakerKey(endpoint.getName(), endpoint.getUrl()));
+            result.put("streaming", stream);
+
+            byte[] payload = objectMapper.writeValueAsBytes(body);
+            for (int i = 0; i < coldRuns; i++) {
+                rateLimiter.acquire(bucketKey, userKey, estimatedTokens);
+                cold.add(coldRun(endpoint, payload, stream));
+            }
+            if (warmRuns > 0) {
+                rateLimiter.acquire(bucketKey, userKey, estimatedTokens);
+                warmRun(endpoint, body, stream);
+                for (int i = 0; i < warmRuns; i++) {
+                    rateLimiter.acquire(bucketKey, userKey, estimatedTokens);
+                    warm.add(warmRun(endpoint, body, stream));
+                }
+            }
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.info("Probe of {}/{} failed: {}", config.getProviderId(), config.getModelId(), e.getMessage());
+            result.put("success", false);
+            result.put("error", e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+
+        result.put("cold", summarize(cold));
+        result.put("warm", summarize(warm));
+        // 路由使用的指标：优先热请求的中位数
+        List<Run> primary = !warm.isEmpty() ? warm : cold;
+        result.put("ttftMs", median(primary, run -> run.ttftMs));
+        result.put("tokensPerSec", median(primary, run -> run.tokensPerSec));
+        result.put("totalMs", median(primary, run -> run.totalMs));
+        result.put("probeTime", System.currentTimeMillis());
+
+        if (config.getId() != null) {
+            save(config, result);
+        }
+        return result;
+    }
+
+    public Map<String, Object> probe(AIConfig config, Map<String, Object> settings) {
+        return probe(config, settings, null, -1, -1);
+    }
+
+    // 最近一次探测结果，未探测过时返回null
+    public Map<String, Object> getLatest(Integer configId) {
+        return latest.get(configId);
+    }
+
+    /**
+     * 最近一次探测成功且熔断器未打开的配置
+     */
+    public boolean isHealthy(ResolvedAIConfig config) {
+        Map<String, Object> probe = latest.get(config.getId());
+        if (probe == null || !Boolean.TRUE.equals(probe.get("success"))) {
+            return false;
+        }
+        Object breakerKey = probe.get("breakerKey");
+        return breakerKey == null || !resilience.isOpen(breakerKey.toString());
+    }
+
+    /**
+     * 探测结果中首个token最快的健康配置，没有可用的探测结果时返回null
+     */
+    public ResolvedAIConfig fastestHealthy(List<ResolvedAIConfig> configs) {
+        ResolvedAIConfig fastest = null;
+        double best = Double.MAX_VALUE;
+        for (ResolvedAIConfig config : configs) {
+            if (!isHealthy(config)) continue;
+            Object ttft = latest.get(config.getId()).get("ttftMs");
+            double value = ttft instanceof Number ? ((Number) ttft).doubleValue() : Double.MAX_VALUE;
+            if (fastest == null || value < best) {
+                fastest = config;
+                best = value;
+            }
+        }
+        return fastest;
+    }
+
+    // 配置的探测历史，最新的在前
+    public List<Map<String, Object>> getHistory(Integer configId) throws Exception {
+        List<Map<String, Object>> history = new ArrayList<>();
+        for (String json : jdbcTemplate.queryForList(
+                "SELECT result FROM magic_sys_ai_config_probe WHERE config_id = ? ORDER BY id DESC LIMIT ?", String.class, configId, HISTORY)) {
+            history.add(readResult(json));
+        }
+        return history;
+    }
+
+    private void save(AIConfig config, Map<String, Object> result) {
+        try {
+            jdbcTemplate.update("INSERT INTO magic_sys_ai_config_probe (config_id, user_id, success, ttft_ms, tokens_per_sec, total_ms, result) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                config.getId(), config.getUserId(), Boolean.TRUE.equals(result.get("success")) ? 1 : 0,
+                result.get("ttftMs"), result.get("tokensPerSec"), result.get("totalMs"), objectMapper.writeValueAsString(result));
+            jdbcTemplate.update("DELETE FROM magic_sys_ai_config_probe WHERE config_id = ? AND id NOT IN " +
+                "(SELECT id FROM magic_sys_ai_config_probe WHERE config_id = ? ORDER BY id DESC LIMIT ?)", config.getId(), config.getId(), HISTORY);
+            latest.put(config.getId(), result);
+        } catch (Exception e) {
+            logger.warn("Failed to save probe result of config {}: {}", config.getId(), e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readResult(String json) throws IOException {
+        return objectMapper.readValue(json, LinkedHashMap.class);
+    }
+
+    private static Map<String, Object> message(String content) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("role", "user");
+        message.put("content", content);
+        return message;
+    }
+
+    /**
+     * 冷启动请求：不经过连接池，自行解析域名、建立连接、完成TLS握手，并在同一连接上发送 HTTP/1.1 请求
+     */
+    private Run coldRun(ProviderEndpoint endpoint, byte[] payload, boolean stream) throws Exception {
+        URI uri = URI.create(endpoint.getUrl());
+        String host = uri.getHost();
+        boolean https = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() > 0 ? uri.getPort() : (https ? 443 : 80);
+
+        Run run = new Run();
+        long start = System.nanoTime();
+        // JVM 对解析结果有缓存，同一域名的后续冷启动请求DNS耗时接近0
+        InetAddress address = InetAddress.getAllByName(host)[0];
+        long resolved = System.nanoTime();
+        run.dnsMs = millis(start, resolved);
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), timeout);
+            socket.setSoTimeout(timeout);
+            long connected = System.nanoTime();
+            run.connectMs = millis(resolved, connected);
+            if (https) {
+                SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+                SSLParameters parameters = ssl.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(parameters);
+                ssl.startHandshake();
+                socket = ssl;
+                run.tlsMs = millis(connected, System.nanoTime());
+            }
+
+            long requestStart = System.nanoTime();
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(requestHead(uri, endpoint.getHeaders(), payload.length, stream).getBytes(StandardCharsets.UTF_8));
+            out.write(payload);
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String statusLine = readLine(in);
+            int status = statusLine != null && statusLine.length() >= 12 ? Integer.parseInt(statusLine.substring(9, 12)) : 0;
+            boolean chunked = false;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Transfer-Encoding")
+                        && line.substring(colon + 1).toLowerCase().contains("chunked")) {
+                    chunked = true;
+                }
+            }
+            InputStream body = chunked ? new ChunkedInputStream(in) : in;
+            if (status < 200 || status >= 300) {
+                throw new RuntimeException("HTTP " + status + ": " + preview(body));
+            }
+            readResponse(run, endpoint.getAdapter(), body, stream, requestStart);
+            run.totalMs = millis(start, System.nanoTime());
+            return run;
+        } finally {
+            socket.close();
+        }
+    }
+
+    // 热请求：走共享连接池，连接已建立，不单独统计 DNS/连接/TLS
+    private Run warmRun(ProviderEndpoint endpoint, Map<String, Object> body, boolean stream) throws Exception {
+        Run run = new Run();
+        long start = System.nanoTime();
+        ProviderAdapter adapter = endpoint.getAdapter();
+        if (stream) {
+            StringBuilder content = new StringBuilder();
+            transport.postStream(endpoint.getUrl(), endpoint.getHeaders(), body, line -> {
+                String token = streamToken(adapter, line);
+                if (token != null && !token.isEmpty()) {
+                    if (content.length() == 0) run.ttftMs = millis(start, System.nanoTime());
+                    content.append(token);
+                }
+            });
+            run.finish(content.toString(), millis(start, System.nanoTime()));
+        } else {
+            String content = transport.post(endpoint.getUrl(), endpoint.getHeaders(), body, adapter::decode).getBody();
+            run.finish(content, millis(start, System.nanoTime()));
+        }
+        return run;
+    }
+
+    private void readResponse(Run run, ProviderAdapter adapter, InputStream body, boolean stream, long start) throws Exception {
+        if (!stream) {
+            run.finish(adapter.decode(body), millis(start, System.nanoTime()));
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String token = streamToken(adapter, line);
+            if (token != null && !token.isEmpty()) {
+                if (content.length() == 0) run.ttftMs = millis(start, System.nanoTime());
+                content.append(token);
+            }
+        }
+        run.finish(content.toString(), millis(start, System.nanoTime()));
+    }
+
+    private static String streamToken(ProviderAdapter adapter, String line) throws IOException {
+        if (line == null || !line.startsWith("data:")) return null;
+        String data = line.substring(5).trim();
+        if (data.isEmpty() || "[DONE]".equals(data)) return null;
+        return adapter.decodeStreamEvent(data);
+    }
+
+    private static String requestHead(URI uri, HttpHeaders headers, int length, boolean stream) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+        StringBuilder head = new StringBuilder();
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(uri.getHost()).append(uri.getPort() > 0 ? ":" + uri.getPort() : "").append("\r\n");
+        boolean contentType = false;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Connection")
+                    || name.equalsIgnoreCase("Accept")) {
+                continue;
+            }
+            contentType |= name.equalsIgnoreCase("Content-Type");
+            for (String value : header.getValue()) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (!contentType) head.append("Content-Type: application/json\r\n");
+        head.append("Accept: ").append(stream ? "text/event-stream" : "application/json").append("\r\n");
+        head.append("Content-Length: ").append(length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        return head.toString();
+    }
+
+    // 读取一行 HTTP 头（以 CRLF 结尾），流结束时返回null
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') break;
+            if (c != '\r') line.write(c);
+        }
+        if (c < 0 && line.size() == 0) return null;
+        return line.toString("ISO-8859-1");
+    }
+
+    private static String preview(InputStream body) throws IOException {
+        byte[] buffer = new byte[300];
+        int total = 0;
+        int n;
+        while (total < buffer.length && (n = body.read(buffer, total, buffer.length - total)) > 0) {
+            total += n;
+        }
+        return new String(buffer, 0, total, StandardCharsets.UTF_8);
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000;
+    }
+
+    private static Map<String, Object> summarize(List<Run> runs) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        List<Map<String, Object>> details = new ArrayList<>();
+        for (Run run : runs) {
+            details.add(run.toMap());
+        }
+        summary.put("runs", details);
+        Map<String, Object> median = new LinkedHashMap<>();
+        median.put("dnsMs", median(runs, run -> run.dnsMs));
+        median.put("connectMs", median(runs, run -> run.connectMs));
+        median.put("tlsMs", median(runs, run -> run.tlsMs));
+        median.put("ttftMs", median(runs, run -> run.ttftMs));
+        median.put("tokensPerSec", median(runs, run -> run.tokensPerSec));
+        median.put("totalMs", median(runs, run -> run.totalMs));
+        summary.put("median", median);
+        return summary;
+    }
+
+    private static Number median(List<Run> runs, Function<Run, Number> metric) {
+        List<Double> values = new ArrayList<>();
+        for (Run run : runs) {
+            Number value = metric.apply(run);
+            if (value != null) values.add(value.doubleValue());
+        }
+        if (values.isEmpty()) return null;
+        Collections.sort(values);
+        int mid = values.size() / 2;
+        double median = values.size() % 2 == 1 ? values.get(mid) : (values.get(mid - 1) + values.get(mid)) / 2;
+        return Math.round(median * 10) / 10.0;
+    }
+
+    // 一次探测请求的各阶段耗时（毫秒），未经历的阶段为null
+    private static class Run {
+        Long dnsMs;
+        Long connectMs;
+        Long tlsMs;
+        Long ttftMs;
+        long totalMs;
+        int tokens;
+        Double tokensPerSec;
+
+        // 记录生成内容与总耗时；非流式响应的首个token即整个响应
+        void finish(String content, long requestMs) {
+            if (ttftMs == null) ttftMs = requestMs;
+            totalMs = requestMs;
+            tokens = PromptContextBuilder.estimateTokens(content != null ? content : "");
+            long generating = requestMs - ttftMs;
+            tokensPerSec = generating > 0 && tokens > 0 ? Math.round(tokens * 10000.0 / generating) / 10.0 : null;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("dnsMs", dnsMs);
+            map.put("connectMs", connectMs);
+            map.put("tlsMs", tlsMs);
+            map.put("ttftMs", ttftMs);
+            map.put("tokensPerSec", tokensPerSec);
+            map.put("totalMs", totalMs);
+            map.put("tokens", tokens);
+            return map;
+        }
+    }
+
+    // HTTP/1.1 分块传输编码的解码
+    private static class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+        private boolean eof;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (eof) return -1;
+            if (remaining == 0) {
+                String size = readLine(in);
+                // 跳过上一个块结尾的空行
+                if (size != null && size.isEmpty()) size = readLine(in);
+                if (size == null) {
+                    eof = true;
+                    return -1;
+                }
+                int semicolon = size.indexOf(';');
+                remaining = Integer.parseInt((semicolon >= 0 ? size.substring(0, semicolon) : size).trim(), 16);
+                if (remaining == 0) {
+                    eof = true;
+                    return -1;
+                }
+            }
+            int n = in.read(buffer, offset, Math.min(length, remaining));
+            if (n < 0) {
+                eof = true;
+                return -1;
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
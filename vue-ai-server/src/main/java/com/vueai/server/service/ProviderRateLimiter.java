@@ -0,0 +1,303 @@
+package com.vueai.server.service;
+
+import com.vueai.server.util.AIRequestFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按 (提供商, API Key) 维度的令牌桶限流：同时计量请求数与预估token数，
+ * 排队请求在用户之间轮转放行；限额根据提供商返回的 x-ratelimit-* / Retry-After 头自适应调整
+ */
+@Component
+public class ProviderRateLimiter {
+
+    private final Logger logger = LoggerFactory.getLogger(ProviderRateLimiter.class);
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+
+    @Value("${ai.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.rate-limit.requests-per-minute:60}")
+    private double defaultRequestsPerMinute;
+
+    @Value("${ai.rate-limit.tokens-per-minute:200000}")
+    private double defaultTokensPerMinute;
+
+    @Value("${ai.rate-limit.max-wait:60000}")
+    private long maxWait;
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public static String bucketKey(String provider, String apiKey) {
+        return provider + ":" + (apiKey == null ? "-" : AIRequestFingerprint.keyHash(apiKey));
+    }
+
+    /**
+     * 申请一次调用的配额，配额不足时排队等待；超过最大等待时间抛出异常
+     */
+    public void acquire(String bucketKey, String userKey, long estimatedTokens) throws InterruptedException {
+        if (!enabled) return;
+        Bucket bucket = buckets.computeIfAbsent(bucketKey, k -> new Bucket(defaultRequestsPerMinute, defaultTokensPerMinute));
+        long deadline = System.currentTimeMillis() + maxWait;
+
+        synchronized (bucket) {
+            Ticket ticket = bucket.enqueue(userKey, Math.min(estimatedTokens, (long) bucket.tokenLimit));
+            try {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    bucket.refill(now);
+                    long waitMs = bucket.head() == ticket ? bucket.waitTime(ticket, now) : 1000;
+                    if (waitMs <= 0) {
+                        bucket.grant(ticket);
+                        return;
+                    }
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        throw new QueueTimeoutException("AI服务请求过于频繁，排队超时，请稍后重试");
+                    }
+                    bucket.wait(Math.max(1, Math.min(waitMs, remaining)));
+                }
+            } finally {
+                bucket.dequeue(ticket);
+                bucket.notifyAll();
+            }
+        }
+    }
+
+    // 根据提供商返回的限流头校准本地限额
+    public void onResponse(String bucketKey, HttpHeaders headers) {
+        Bucket bucket = buckets.get(bucketKey);
+        if (bucket == null || headers == null) return;
+        synchronized (bucket) {
+            Double requestLimit = number(headers, "x-ratelimit-limit-requests", "anthropic-ratelimit-requests-limit");
+            Double tokenLimit = number(headers, "x-ratelimit-limit-tokens", "anthropic-ratelimit-tokens-limit");
+            Double requestRemaining = number(headers, "x-ratelimit-remaining-requests", "anthropic-ratelimit-requests-remaining");
+            Double tokenRemaining = number(headers, "x-ratelimit-remaining-tokens", "anthropic-ratelimit-tokens-remaining");
+
+            if (requestLimit != null && requestLimit > 0) {
+                bucket.requestLimit = requestLimit;
+                bucket.learnedRequestLimit = requestLimit;
+                bucket.lowered = false;
+            } else if (bucket.lowered) {
+                // 没有限额头时，被429下调的速率在成功后缓慢恢复到最近一次得知的限额
+                bucket.requestLimit = Math.min(bucket.learnedRequestLimit, bucket.requestLimit + 1);
+                bucket.lowered = bucket.requestLimit < bucket.learnedRequestLimit;
+            }
+            if (tokenLimit != null && tokenLimit > 0) bucket.tokenLimit = tokenLimit;
+            if (requestRemaining != null) bucket.requests = Math.min(bucket.requests, requestRemaining);
+            if (tokenRemaining != null) bucket.tokens = Math.min(bucket.tokens, tokenRemaining);
+            bucket.notifyAll();
+        }
+    }
+
+    // 收到429：暂停该桶直到 Retry-After 指定的时间，并在没有限额头时下调速率
+    public void onThrottled(String bucketKey, HttpHeaders headers) {
+        Bucket bucket = buckets.get(bucketKey);
+        if (bucket == null) return;
+        long retryAfter = retryAfterMillis(headers);
+        synchronized (bucket) {
+            bucket.pausedUntil = Math.max(bucket.pausedUntil, System.currentTimeMillis() + retryAfter);
+            bucket.requests = 0;
+            if (headers == null || number(headers, "x-ratelimit-limit-requests", "anthropic-ratelimit-requests-limit") == null) {
+                bucket.requestLimit = Math.max(1, bucket.requestLimit * 0.8);
+                bucket.lowered = true;
+            }
+            bucket.throttled++;
+        }
+        logger.warn("Provider bucket {} throttled, pausing {}ms", bucketKey, retryAfter);
+    }
+
+    private long retryAfterMillis(HttpHeaders headers) {
+        if (headers != null) {
+            String retryAfter = headers.getFirst("Retry-After");
+            if (retryAfter != null) {
+                try {
+                    return (long) (Double.parseDouble(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException ignored) {
+                    // HTTP-date 格式，落到下面的重置头处理
+                }
+            }
+            Long reset = resetMillis(headers.getFirst("x-ratelimit-reset-requests"));
+            if (reset == null) reset = resetMillis(headers.getFirst("anthropic-ratelimit-requests-reset"));
+            if (reset != null) return reset;
+        }
+        return 1000;
+    }
+
+    // 解析 "1s" / "6m0s" / "250ms" 或 RFC3339 时间格式的重置时间
+    private Long resetMillis(String value) {
+        if (value == null || value.isEmpty()) return null;
+        if (value.contains("T")) {
+            try {
+                return Math.max(0, Instant.parse(value).toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        Matcher matcher = DURATION_PART.matcher(value);
+        double total = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "ms": total += amount; break;
+                case "s": total += amount * 1000; break;
+                case "m": total += amount * 60000; break;
+                default: total += amount * 3600000; break;
+            }
+        }
+        return found ? (long) total : null;
+    }
+
+    private Double number(HttpHeaders headers, String... names) {
+        for (String name : names) {
+            String value = headers.getFirst(name);
+            if (value != null) {
+                try {
+                    return Double.parseDouble(value.trim());
+                } catch (NumberFormatException ignored) {
+                    // 忽略无法解析的头
+                }
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        Map<String, Object> bucketStats = new HashMap<>();
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            synchronized (bucket) {
+                bucket.refill(System.currentTimeMillis());
+                Map<String, Object> map = new HashMap<>();
+                map.put("requestsPerMinute", bucket.requestLimit);
+                map.put("tokensPerMinute", bucket.tokenLimit);
+                map.put("availableRequests", (long) bucket.requests);
+                map.put("availableTokens", (long) bucket.tokens);
+                map.put("queued", bucket.queued);
+                map.put("granted", bucket.granted);
+                map.put("throttled", bucket.throttled);
+                bucketStats.put(entry.getKey(), map);
+            }
+        }
+        stats.put("buckets", bucketStats);
+        return stats;
+    }
+
+    // 提供商返回429
+    public static class ProviderRateLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ProviderRateLimitException(String message) {
+            super(message);
+        }
+    }
+
+    // 本地排队超过最大等待时间，请求未发往提供商，不计入熔断也不重试
+    public static class QueueTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public QueueTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Ticket {
+        final String userKey;
+        final long tokens;
+
+        Ticket(String userKey, long tokens) {
+            this.userKey = userKey;
+            this.tokens = tokens;
+        }
+    }
+
+    // 令牌桶，所有字段在持有桶锁时访问
+    private static class Bucket {
+        double requestLimit;
+        // 提供商限额头给出的（或默认的）请求限额，以及当前速率是否因429被下调
+        double learnedRequestLimit;
+        boolean lowered;
+        double tokenLimit;
+        double requests;
+        double tokens;
+        long pausedUntil;
+        long lastRefill = System.currentTimeMillis();
+        long granted;
+        long throttled;
+        int queued;
+        // 每个用户一个等待队列，按用户轮转放行
+        final LinkedHashMap<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<>();
+
+        Bucket(double requestLimit, double tokenLimit) {
+            this.requestLimit = requestLimit;
+            this.learnedRequestLimit = requestLimit;
+            this.tokenLimit = tokenLimit;
+            this.requests = requestLimit;
+            this.tokens = tokenLimit;
+        }
+
+        void refill(long now) {
+            long elapsed = now - lastRefill;
+            if (elapsed <= 0) return;
+            requests = Math.min(requestLimit, requests + elapsed * requestLimit / 60000.0);
+            tokens = Math.min(tokenLimit, tokens + elapsed * tokenLimit / 60000.0);
+            lastRefill = now;
+        }
+
+        Ticket enqueue(String userKey, long estimatedTokens) {
+            Ticket ticket = new Ticket(userKey, estimatedTokens);
+            waiting.computeIfAbsent(userKey, k -> new ArrayDeque<>()).addLast(ticket);
+            queued++;
+            return ticket;
+        }
+
+        Ticket head() {
+            Iterator<ArrayDeque<Ticket>> it = waiting.values().iterator();
+            return it.hasNext() ? it.next().peekFirst() : null;
+        }
+
+        long waitTime(Ticket ticket, long now) {
+            long wait = pausedUntil - now;
+            if (requests < 1) {
+                wait = Math.max(wait, (long) Math.ceil((1 - requests) * 60000.0 / requestLimit));
+            }
+            if (tokens < ticket.tokens) {
+                wait = Math.max(wait, (long) Math.ceil((ticket.tokens - tokens) * 60000.0 / tokenLimit));
+            }
+            return wait;
+        }
+
+        void grant(Ticket ticket) {
+            requests -= 1;
+            tokens -= ticket.tokens;
+            granted++;
+        }
+
+        // 移除票据，并把该用户移到轮转队尾
+        void dequeue(Ticket ticket) {
+            ArrayDeque<Ticket> queue = waiting.remove(ticket.userKey);
+            if (queue == null) return;
+            if (queue.remove(ticket)) {
+                queued--;
+            }
+            if (!queue.isEmpty()) {
+                waiting.put(ticket.userKey, queue);
+            }
+        }
+    }
+}
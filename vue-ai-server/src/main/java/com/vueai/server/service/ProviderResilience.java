@@ -0,0 +1,361 @@
+package com.vueai.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 提供商调用的容错包装：每个 (提供商, baseUrl) 一个熔断器，可重试错误按带抖动的指数退避重试，
+ * 可选在主请求超过p95延迟后向备用提供商/模型发起对冲请求，取先成功的结果
+ */
+@Component
+public class ProviderResilience {
+
+    private final Logger logger = LoggerFactory.getLogger(ProviderResilience.class);
+
+    @Value("${ai.resilience.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${ai.resilience.open-duration:30000}")
+    private long openDuration;
+
+    @Value("${ai.resilience.max-retries:2}")
+    private int maxRetries;
+
+    @Value("${ai.resilience.base-backoff:500}")
+    private long baseBackoff;
+
+    @Value("${ai.resilience.max-backoff:8000}")
+    private long maxBackoff;
+
+    @Value("${ai.resilience.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    @Value("${ai.resilience.hedge.default-delay:15000}")
+    private long hedgeDefaultDelay;
+
+    @Value("${ai.resilience.hedge.max-concurrency:16}")
+    private int hedgeMaxConcurrency;
+
+    private final ConcurrentHashMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private ExecutorService hedgeExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        hedgeExecutor = new ThreadPoolExecutor(0, hedgeMaxConcurrency * 2, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "ai-hedge-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    public boolean isHedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    // 熔断器按 (提供商, 地址) 区分
+    public static String breakerKey(String provider, String url) {
+        return provider + "|" + url;
+    }
+
+    // 该目标的熔断器是否处于打开状态（尚未到达半开时间）
+    public boolean isOpen(String key) {
+        Breaker breaker = breakers.get(key);
+        return breaker != null && breaker.isOpen();
+    }
+
+    /**
+     * 阻塞调用：熔断 + 重试，hedge 不为空且开启对冲时在 p95 延迟后发起对冲请求；
+     * 主目标熔断时直接使用对冲目标
+     */
+    public <T> T call(String key, Callable<T> primary, String hedgeKey, Callable<T> hedge) throws Exception {
+        boolean canHedge = hedgeEnabled && hedge != null;
+        if (canHedge && breaker(key).isOpen()) {
+            logger.warn("Circuit open for {}, using fallback {}", key, hedgeKey);
+            return withRetry(hedgeKey, hedge, () -> true);
+        }
+        if (!canHedge) {
+            return withRetry(key, primary, () -> true);
+        }
+        return hedged(key, primary, hedgeKey, hedge);
+    }
+
+    /**
+     * 流式调用：已向客户端输出过内容后不再重试
+     */
+    public <T> T stream(String key, Callable<T> primary, BooleanSupplier canRetry) throws Exception {
+        return withRetry(key, primary, canRetry);
+    }
+
+    private <T> T withRetry(String key, Callable<T> task, BooleanSupplier canRetry) throws Exception {
+        Breaker breaker = breaker(key);
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                throw new CircuitOpenException("AI服务暂时不可用(已熔断)，请稍后重试: " + key);
+            }
+            long start = System.currentTimeMillis();
+            try {
+                T result = task.call();
+                breaker.onSuccess(System.currentTimeMillis() - start);
+                return result;
+            } catch (Exception e) {
+                // 被中止的请求（对冲中落败的一方）不计入熔断、不重试
+                boolean retriable = !AIProviderTransport.isAborted() && isRetriable(e);
+                if (retriable) {
+                    breaker.onFailure();
+                } else {
+                    breaker.release();
+                }
+                if (!retriable || attempt >= maxRetries || !canRetry.getAsBoolean()) {
+                    throw e;
+                }
+                long backoff = ThreadLocalRandom.current().nextLong(Math.min(maxBackoff, baseBackoff << attempt) + 1);
+                retries.incrementAndGet();
+                logger.warn("AI call to {} failed ({}), retry {} in {}ms", key, e.getMessage(), attempt + 1, backoff);
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    // 连接失败、超时、5xx 和提供商返回的 429 视为可重试；本地排队超时等未到达提供商的错误不重试、不计入熔断
+    private boolean isRetriable(Exception e) {
+        return e instanceof ResourceAccessException
+                || e instanceof HttpServerErrorException
+                || e instanceof ProviderRateLimiter.ProviderRateLimitException;
+    }
+
+    // 主请求在自己的 Attempt 中重试并记录自身熔断器，对冲请求只记录对冲目标的熔断器，整个竞速不再重试
+    private <T> T hedged(String key, Callable<T> primary, String hedgeKey, Callable<T> hedge) throws Exception {
+        Attempt<T> primaryAttempt = submit(() -> withRetry(key, primary, () -> true));
+        if (primaryAttempt == null) {
+            // 对冲线程池已满，在调用线程上执行，不对冲
+            return withRetry(key, primary, () -> true);
+        }
+        long delay = breaker(key).p95(hedgeDefaultDelay);
+        try {
+            return primaryAttempt.result.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 主请求慢于p95，发起对冲
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        Breaker hedgeBreaker = breaker(hedgeKey);
+        boolean hedgeAllowed = hedgeBreaker.allowRequest();
+        Attempt<T> hedgeAttempt = hedgeAllowed ? submit(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                T result = hedge.call();
+                hedgeBreaker.onSuccess(System.currentTimeMillis() - start);
+                return result;
+            } catch (Exception ex) {
+                if (AIProviderTransport.isAborted() || !isRetriable(ex)) {
+                    hedgeBreaker.release();
+                } else {
+                    hedgeBreaker.onFailure();
+                }
+                throw ex;
+            }
+        }) : null;
+        if (hedgeAttempt == null) {
+            if (hedgeAllowed) hedgeBreaker.release();
+            return await(primaryAttempt.result);
+        }
+        hedges.incrementAndGet();
+        logger.info("Hedging AI call to {} after {}ms with {}", key, delay, hedgeKey);
+
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (Attempt<T> attempt : Arrays.asList(primaryAttempt, hedgeAttempt)) {
+            attempt.result.whenComplete((result, error) -> {
+                if (error == null) {
+                    winner.complete(result);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            T result = await(winner);
+            if (hedgeAttempt.result.isDone() && !hedgeAttempt.result.isCompletedExceptionally() && hedgeAttempt.result.join() == result) {
+                hedgeWins.incrementAndGet();
+            }
+            return result;
+        } finally {
+            // 中止仍在进行的一方，释放线程、连接和提供商配额
+            primaryAttempt.cancel();
+            hedgeAttempt.cancel();
+        }
+    }
+
+    // 在对冲线程池上执行，线程池已满时返回null
+    private <T> Attempt<T> submit(Callable<T> task) {
+        Attempt<T> attempt = new Attempt<>();
+        try {
+            attempt.future = hedgeExecutor.submit(() -> {
+                try {
+                    attempt.result.complete(AIProviderTransport.abortable(attempt.handle, task));
+                } catch (Throwable e) {
+                    attempt.result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return attempt;
+    }
+
+    // 对冲线程池中的一次调用
+    private static class Attempt<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AIProviderTransport.AbortHandle handle = AIProviderTransport.newHandle();
+        volatile Future<?> future;
+
+        // 已完成时无效果
+        void cancel() {
+            if (result.isDone()) return;
+            handle.abort();
+            if (future != null) future.cancel(true);
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    private Breaker breaker(String key) {
+        return breakers.computeIfAbsent(key, k -> new Breaker());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("retries", retries.get());
+        stats.put("hedges", hedges.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        Map<String, Object> breakerStats = new HashMap<>();
+        for (Map.Entry<String, Breaker> entry : breakers.entrySet()) {
+            breakerStats.put(entry.getKey(), entry.getValue().toMap());
+        }
+        stats.put("breakers", breakerStats);
+        return stats;
+    }
+
+    public static class CircuitOpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // 熔断器与最近延迟窗口
+    private class Breaker {
+        private static final int WINDOW = 100;
+
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean trialInFlight;
+        private final long[] latencies = new long[WINDOW];
+        private int latencyCount;
+        private int latencyIndex;
+
+        synchronized boolean isOpen() {
+            return state == State.OPEN && System.currentTimeMillis() - openedAt < openDuration;
+        }
+
+        synchronized boolean allowRequest() {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openDuration) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) return false;
+                trialInFlight = true;
+            }
+            return true;
+        }
+
+        synchronized void onSuccess(long latency) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            trialInFlight = false;
+            latencies[latencyIndex] = latency;
+            latencyIndex = (latencyIndex + 1) % WINDOW;
+            latencyCount = Math.min(WINDOW, latencyCount + 1);
+        }
+
+        synchronized void onFailure() {
+            consecutiveFailures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+
+        // 非提供商原因的失败（如参数错误、客户端断开）不计入熔断
+        synchronized void release() {
+            trialInFlight = false;
+        }
+
+        // 样本不足时返回默认值
+        synchronized long p95(long defaultValue) {
+            return latencyCount < 5 ? defaultValue : percentile(0.95);
+        }
+
+        synchronized long percentile(double p) {
+            if (latencyCount == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(latencyCount * p) - 1];
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("state", state.name());
+            map.put("consecutiveFailures", consecutiveFailures);
+            map.put("p50", latencyCount > 0 ? percentile(0.5) : null);
+            map.put("p95", latencyCount > 0 ? percentile(0.95) : null);
+            map.put("samples", latencyCount);
+            return map;
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package com.vueai.server.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vueai.server.model.AIConfig;
-import com.vueai.server.util.ProjectContextAnalyzer;
+import com.vueai.server.model.ProjectTree;
+import com.vueai.server.model.ResolvedAIConfig;
+import com.vueai.server.service.provider.ProviderRegistry;
+import com.vueai.server.util.FileBlockParser;
+import com.vueai.server.util.GitIgnoreMatcher;
+import com.vueai.server.util.ImportScanner;
+import com.vueai.server.util.ParsedProject;
+import com.vueai.server.util.ProjectImportGraph;
+import com.vueai.server.util.PromptContextBuilder;
+import com.vueai.server.util.SearchReplacePatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
-import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class SmartCodeGeneratorService {
@@ -26,83 +38,385 @@ public class SmartCodeGeneratorService {
     
     @Autowired
     private AIConfigService aiConfigService;
-    
+
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    private ModelRouter modelRouter;
     
     @Autowired
     private ObjectMapper objectMapper;
     
-    @Transactional(rollbackFor = Exception.class)
+    @Autowired
+    private ProviderRegistry providerRegistry;
+    
+    @Autowired
+    private ProjectParseCache projectParseCache;
+
+    @Autowired
+    private ProjectStore projectStore;
+    
+    @Value("${ai.context.max-tokens:24000}")
+    private int maxContextTokens;
+    
+    @Value("${ai.context.default-window:8192}")
+    private int defaultContextWindow;
+    
+    @Value("${ai.speculative.max-candidates:3}")
+    private int maxCandidates;
+    
+    @Value("${ai.speculative.max-concurrency:16}")
+    private int speculativeMaxConcurrency;
+    
+    private ExecutorService speculativeExecutor;
+    private final AtomicLong speculativeRuns = new AtomicLong();
+    private final AtomicLong primaryWins = new AtomicLong();
+    private final AtomicLong alternateWins = new AtomicLong();
+    private final AtomicLong speculativeFailures = new AtomicLong();
+    
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        speculativeExecutor = new ThreadPoolExecutor(0, speculativeMaxConcurrency, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "ai-speculative-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        speculativeExecutor.shutdownNow();
+    }
+    
+    /**
+     * 分阶段执行：读取项目快照 -> 不持有事务调用AI -> 以版本号做乐观写入，
+     * 避免长时间的AI调用占用数据库连接和SQLite写锁
+     */
     public Map<String, Object> generateModule(Integer projectId, String requirement, Integer userId, Map<String, String> currentFiles) throws Exception {
-        Object contentObj;
-        
-        // 1. 获取项目信息 (优先使用前端传来的文件)
-        if (currentFiles != null && !currentFiles.isEmpty()) {
-            contentObj = currentFiles;
-        } else if (projectId != null && projectId > 0) {
-            Map<String, Object> project = jdbcTemplate.queryForMap("SELECT * FROM magic_sys_project WHERE id = ?", projectId);
-            contentObj = (String) project.get("content");
-        } else {
-            throw new RuntimeException("未提供项目文件内容或有效的项目ID");
-        }
-        
-        // 2. 获取AI配置
-        AIConfig aiConfig = aiConfigService.getActiveAIConfig(userId);
-        if (aiConfig == null) {
-            throw new RuntimeException("未找到活动的AI配置");
-        }
-        
-        // 3. 分析项目上下文
-        String structure = ProjectContextAnalyzer.analyzeStructure(contentObj);
-        String dependencies = ProjectContextAnalyzer.getDependencies(contentObj);
-        String gitIgnore = ProjectContextAnalyzer.findFileContent(contentObj, ".gitignore");
-        
-        // 4. 构建提示词
-        List<Map<String, Object>> messages = buildPrompt(structure, dependencies, requirement);
+        return generateModule(projectId, requirement, userId, currentFiles, null);
+    }
+
+    /**
+     * route 为 true 时由 ModelRouter 在用户保存的全部配置中选择，为 false 时使用活动配置，为null时按 ai.router.enabled
+     */
+    public Map<String, Object> generateModule(Integer projectId, String requirement, Integer userId, Map<String, String> currentFiles,
+                                              Boolean route) throws Exception {
+        ModuleContext context = prepareModule(projectId, requirement, userId, currentFiles, buildSystemPrompt(), route);
         
         // 5. 调用AI
-        Map<String, Object> configMap = objectMapper.readValue(aiConfig.getConfig(), Map.class);
         Map<String, Object> aiResponse = aiGenerateService.generateWithMessages(
-            aiConfig.getProviderId(), 
-            aiConfig.getModelId(), 
-            configMap, 
-            messages
+            context.aiConfig.getProviderId(), 
+            context.aiConfig.getModelId(), 
+            context.configMap, 
+            context.messages,
+            context.userId
         );
         
         String generatedContent = (String) ((Map) aiResponse.get("data")).get("content");
         
         // 6. 解析生成的文件
         List<Map<String, String>> files = parseGeneratedContent(generatedContent);
+        return completeModule(context, files);
+    }
+
+    /**
+     * 编辑模式：模型对已有文件只返回 SEARCH/REPLACE 修改块，由服务端应用到项目文件上，
+     * 小范围修改大文件时输出量只与修改量相关；任一修改块无法应用时整次生成失败
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> editModule(Integer projectId, String requirement, Integer userId, Map<String, String> currentFiles) throws Exception {
+        ModuleContext context = prepareModule(projectId, requirement, userId, currentFiles, buildEditSystemPrompt(), null);
+
+        Map<String, Object> aiResponse = aiGenerateService.generateWithMessages(
+            context.aiConfig.getProviderId(), context.aiConfig.getModelId(), context.configMap, context.messages, context.userId);
+        String content = (String) ((Map<String, Object>) aiResponse.get("data")).get("content");
+
+        List<Map<String, String>> files = new ArrayList<>();
+        for (Map<String, String> file : FileBlockParser.parse(content)) {
+            files.add(normalizeFile(file));
+        }
+        List<String> edited = applyEdits(context.project, FileBlockParser.parse(content, "edit"), files);
+        if (files.isEmpty()) {
+            logger.warn("编辑模式未解析到修改块或文件，原始内容：{}", content);
+        }
+        Map<String, Object> result = completeModule(context, files);
+        result.put("edited", edited);
+        return result;
+    }
+
+    // 把修改块应用到项目文件，结果作为完整文件加入 files（与同路径的完整文件合并），返回被修改的文件路径
+    private List<String> applyEdits(ParsedProject project, List<Map<String, String>> edits, List<Map<String, String>> files) {
+        Map<String, Map<String, String>> byPath = new LinkedHashMap<>();
+        for (Map<String, String> file : files) {
+            byPath.put(file.get("path"), file);
+        }
+        List<String> edited = new ArrayList<>();
+        for (Map<String, String> edit : edits) {
+            String path = normalizeFile(edit).get("path");
+            // 同一文件的多个 <edit> 块依次应用在上一次的结果上
+            String original = byPath.containsKey(path) ? byPath.get(path).get("content") : project.getFiles().get(path);
+            if (original == null) {
+                throw new RuntimeException("补丁应用失败: 文件不存在 (" + path + ")");
+            }
+            String patched;
+            try {
+                patched = SearchReplacePatch.parse(edit.get("content")).apply(original);
+            } catch (SearchReplacePatch.PatchException e) {
+                throw new RuntimeException("补丁应用失败: " + path + " " + e.getMessage());
+            }
+            Map<String, String> file = byPath.computeIfAbsent(path, k -> {
+                Map<String, String> created = new HashMap<>();
+                created.put("path", k);
+                files.add(created);
+                return created;
+            });
+            file.put("content", patched);
+            if (!edited.contains(path)) edited.add(path);
+        }
+        return edited;
+    }
+
+    /**
+     * 推测式生成：同一提示词同时发给多个AI配置（configIds 为空时取当前配置及用户的其他配置），
+     * 每个候选完成后立即解析并检查，第一个通过检查的结果被采用并保存，其余仍在进行的请求被取消
+     */
+    public Map<String, Object> generateModuleSpeculative(Integer projectId, String requirement, Integer userId, Map<String, String> currentFiles,
+                                                         List<Integer> configIds) throws Exception {
+        List<ResolvedAIConfig> configs = candidateConfigs(userId, configIds);
+        ModuleContext context = prepareModule(loadProject(projectId, userId, currentFiles), requirement, configs, buildSystemPrompt());
+        speculativeRuns.incrementAndGet();
+
+        ExecutorCompletionService<Candidate> completion = new ExecutorCompletionService<>(speculativeExecutor);
+        List<Future<Candidate>> futures = new ArrayList<>();
+        List<AIProviderTransport.AbortHandle> handles = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            int index = i;
+            // 每个候选在自己的中止句柄下发请求，落败时可直接中止底层连接
+            AIProviderTransport.AbortHandle handle = new AIProviderTransport.AbortHandle();
+            try {
+                futures.add(completion.submit(() -> AIProviderTransport.abortable(handle, () -> generateCandidate(context, index))));
+                handles.add(handle);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Speculative candidate {} skipped, executor saturated", describe(context.candidates.get(i)));
+            }
+        }
+        if (futures.isEmpty()) {
+            // 执行器已满时只用第一个配置生成
+            return completeSpeculative(context, generateCandidate(context, 0), 1);
+        }
+
+        List<String> errors = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Candidate> done = completion.take();
+                try {
+                    return completeSpeculative(context, done.get(), futures.size());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    logger.info("Speculative candidate failed: {}", cause.getMessage());
+                    errors.add(cause.getMessage());
+                }
+            }
+        } finally {
+            // 采用结果或全部失败后取消仍在进行的候选：先中止请求，再中断线程
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Candidate> future = futures.get(i);
+                if (future.isDone()) continue;
+                handles.get(i).abort();
+                future.cancel(true);
+            }
+        }
+        speculativeFailures.incrementAndGet();
+        throw new RuntimeException("所有候选模型均生成失败: " + String.join("; ", errors));
+    }
+
+    // 参与推测式生成的配置：指定的配置，或当前配置在前的用户全部配置，最多 ai.speculative.max-candidates 个
+    private List<ResolvedAIConfig> candidateConfigs(Integer userId, List<Integer> configIds) {
+        List<ResolvedAIConfig> all = aiConfigService.getResolvedConfigs(userId);
+        List<ResolvedAIConfig> configs = new ArrayList<>();
+        if (configIds != null && !configIds.isEmpty()) {
+            for (Integer id : configIds) {
+                ResolvedAIConfig config = all.stream().filter(c -> c.getId().equals(id)).findFirst()
+                    .orElseThrow(() -> new RuntimeException("AI配置不存在: " + id));
+                if (!configs.contains(config)) configs.add(config);
+            }
+        } else {
+            configs.addAll(all);
+        }
+        if (configs.isEmpty()) {
+            throw new RuntimeException("未找到活动的AI配置");
+        }
+        return configs.size() > maxCandidates ? new ArrayList<>(configs.subList(0, maxCandidates)) : configs;
+    }
+
+    // 单个候选：调用AI、解析并检查，未生成任何文件或检查不通过时抛出异常
+    @SuppressWarnings("unchecked")
+    private Candidate generateCandidate(ModuleContext context, int index) throws Exception {
+        AIConfig config = context.candidates.get(index);
+        Map<String, Object> configMap = context.candidateConfigMaps.get(index);
+        try {
+            Map<String, Object> aiResponse = aiGenerateService.generateWithMessages(
+                config.getProviderId(), config.getModelId(), configMap, context.messages, context.userId);
+            List<Map<String, String>> files = parseGeneratedContent((String) ((Map<String, Object>) aiResponse.get("data")).get("content"));
+            if (files.isEmpty()) {
+                throw new RuntimeException("未解析到生成的文件");
+            }
+            validateGeneratedFiles(files, context.project);
+            return new Candidate(index, files);
+        } catch (Exception e) {
+            throw new RuntimeException(describe(config) + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Object> completeSpeculative(ModuleContext context, Candidate winner, int raced) {
+        (winner.index == 0 ? primaryWins : alternateWins).incrementAndGet();
+        AIConfig config = context.candidates.get(winner.index);
+        logger.info("Speculative generation won by {} ({} candidates)", describe(config), raced);
+        Map<String, Object> result = saveModule(context, winner.files);
+        result.put("model", describe(config));
+        result.put("candidates", raced);
+        return result;
+    }
+
+    private static String describe(AIConfig config) {
+        return config.getProviderId() + "/" + config.getModelId();
+    }
+
+    /**
+     * 流式模块生成：每个 <file> 块在其结束标签到达时立即通过 onFile 回调，
+     * 生成结束后执行与 generateModule 相同的检查与保存流程
+     */
+    public Map<String, Object> generateModuleStream(Integer projectId, String requirement, Integer userId, Map<String, String> currentFiles,
+                                                    Boolean route, Consumer<String> onToken, Consumer<Map<String, String>> onFile) throws Exception {
+        ModuleContext context = prepareModule(projectId, requirement, userId, currentFiles, buildSystemPrompt(), route);
+
+        List<Map<String, String>> files = new ArrayList<>();
+        FileBlockParser parser = new FileBlockParser(block -> {
+            Map<String, String> file = normalizeFile(block);
+            files.add(file);
+            onFile.accept(file);
+        });
+        String content = aiGenerateService.streamWithMessages(
+            context.aiConfig.getProviderId(),
+            context.aiConfig.getModelId(),
+            context.configMap,
+            context.messages,
+            context.userId,
+            token -> {
+                onToken.accept(token);
+                parser.feed(token);
+            }
+        );
+        parser.finish();
+        if (parser.getTruncatedPath() != null) {
+            logger.warn("AI输出被截断，丢弃未完成的文件: {}", parser.getTruncatedPath());
+        }
+
+        if (files.isEmpty()) {
+            logger.warn("未解析到XML格式文件，原始内容：{}", content);
+        }
+        return completeModule(context, files);
+    }
+
+    // route 为null时按 ai.router.enabled 决定是否在用户的多个配置中路由，否则使用活动配置
+    private ModuleContext prepareModule(Integer projectId, String requirement, Integer userId, Map<String, String> currentFiles,
+                                        String systemPrompt, Boolean route) throws Exception {
+        ModuleContext context = loadProject(projectId, userId, currentFiles);
+        ResolvedAIConfig aiConfig;
+        if (route != null ? route : modelRouter.isEnabled()) {
+            // 按完整放入项目上下文所需的token数选择配置，上下文最多 ai.context.max-tokens
+            int requestTokens = PromptContextBuilder.estimateTokens(systemPrompt) + PromptContextBuilder.estimateTokens(requirement)
+                + Math.min(maxContextTokens, context.project.getTokens());
+            ModelRouter.Decision decision = modelRouter.route(aiConfigService.getResolvedConfigs(userId), requestTokens);
+            if (decision == null) {
+                throw new RuntimeException("未找到活动的AI配置");
+            }
+            aiConfig = decision.getConfig();
+            context.routeReason = decision.getReason();
+            logger.info("Routed {} tokens request to {} ({})", requestTokens, describe(aiConfig.getConfig()), decision.getReason());
+        } else {
+            aiConfig = aiConfigService.getActiveConfig(userId);
+            if (aiConfig == null) {
+                throw new RuntimeException("未找到活动的AI配置");
+            }
+        }
+        return prepareModule(context, requirement, Collections.singletonList(aiConfig), systemPrompt);
+    }
+
+    // 读取并解析项目内容 (优先使用前端传来的文件)
+    private ModuleContext loadProject(Integer projectId, Integer userId, Map<String, String> currentFiles) throws Exception {
+        ModuleContext context = new ModuleContext();
+        context.projectId = projectId;
+        context.userId = userId;
         
+        // 1. 获取项目信息
+        if (currentFiles != null && !currentFiles.isEmpty()) {
+            context.contentObj = currentFiles;
+        } else if (projectId != null && projectId > 0) {
+            ProjectStore.Snapshot snapshot = projectStore.read(projectId);
+            if (snapshot == null) {
+                throw new RuntimeException("项目不存在: " + projectId);
+            }
+            context.contentObj = snapshot.getContent();
+            context.version = snapshot.getVersion();
+        } else {
+            throw new RuntimeException("未提供项目文件内容或有效的项目ID");
+        }
+
+        // 2. 分析项目上下文（同一内容只解析一次）
+        context.project = projectParseCache.get(context.contentObj);
+        return context;
+    }
+
+    // configs 为参与生成的AI配置，第一个为主配置；提示词按其中最小的上下文预算构建
+    private ModuleContext prepareModule(ModuleContext context, String requirement, List<ResolvedAIConfig> configs,
+                                        String systemPrompt) {
+        // 3. 获取AI配置（已在配置缓存中解析）
+        context.candidates = new ArrayList<>();
+        context.candidateConfigMaps = new ArrayList<>();
+        for (ResolvedAIConfig config : configs) {
+            context.candidates.add(config.getConfig());
+            context.candidateConfigMaps.add(config.getSettings());
+        }
+        context.aiConfig = context.candidates.get(0);
+        context.configMap = context.candidateConfigMaps.get(0);
+        
+        // 4. 构建提示词
+        int budget = Integer.MAX_VALUE;
+        for (int i = 0; i < configs.size(); i++) {
+            budget = Math.min(budget, contextBudget(configs.get(i), systemPrompt, requirement));
+        }
+        String projectContext = PromptContextBuilder.build(context.project.getFiles(), context.project.getImportGraph(),
+            context.project.getStructure(), context.project.getPackageJson(), requirement, budget);
+        context.messages = buildPrompt(systemPrompt, projectContext, requirement);
+        return context;
+    }
+
+    private Map<String, Object> completeModule(ModuleContext context, List<Map<String, String>> files) {
         // 7. 代码质量与规范检查
-        validateGeneratedFiles(files, dependencies, gitIgnore);
+        validateGeneratedFiles(files, context.project);
+        Map<String, Object> result = saveModule(context, files);
+        if (context.routeReason != null) {
+            result.put("model", describe(context.aiConfig));
+            result.put("route", context.routeReason);
+        }
+        return result;
+    }
+
+    // 保存已通过检查的生成结果
+    private Map<String, Object> saveModule(ModuleContext context, List<Map<String, String>> files) {
+        Integer projectId = context.projectId;
+        
+        // 任务在生成过程中被取消（工作线程被中断）时不再保存
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("生成任务已取消");
+        }
         
         // 8. 更新项目文件 (仅当有项目ID时才保存到数据库)
         if (projectId != null && projectId > 0) {
             try {
-                // 如果使用的是flat map (currentFiles)，我们需要先将其转换为tree结构，或者如果contentObj是json string，则按原逻辑
-                List<Map<String, Object>> projectFiles;
-                if (contentObj instanceof Map) {
-                    // 如果源是Map，说明我们没有原始的Tree结构。
-                    // 这种情况下，我们不需要在这里重建Tree并保存，因为前端会接收文件并更新它的Store。
-                    // 只有当前端显式保存项目时，才会将Store中的Files转换为Tree保存到DB。
-                    // 所以这里我们其实可以跳过DB更新，或者我们需要从DB重新读取一次Tree来更新。
-                    
-                    // 为了保持一致性，如果projectId存在，我们应该尝试更新DB。
-                    // 重新从DB读取最新的Tree结构
-                    Map<String, Object> project = jdbcTemplate.queryForMap("SELECT * FROM magic_sys_project WHERE id = ?", projectId);
-                    String dbContentJson = (String) project.get("content");
-                    projectFiles = objectMapper.readValue(dbContentJson, new TypeReference<List<Map<String, Object>>>(){});
-                } else {
-                    projectFiles = objectMapper.readValue((String) contentObj, new TypeReference<List<Map<String, Object>>>(){});
-                }
-                
-                updateProjectFiles(projectFiles, files);
-                
-                // 9. 保存回数据库
-                String newContentJson = objectMapper.writeValueAsString(projectFiles);
-                jdbcTemplate.update("UPDATE magic_sys_project SET content = ? WHERE id = ?", newContentJson, projectId);
+                saveProjectFiles(context, files);
             } catch (Exception e) {
                 logger.warn("Failed to auto-save project files to DB: " + e.getMessage());
                 // Don't fail the request if DB save fails, as the user still gets the generated code
@@ -115,8 +429,22 @@ public class SmartCodeGeneratorService {
         return result;
     }
     
-    private List<Map<String, Object>> buildPrompt(String structure, String dependencies, String requirement) {
-        String systemPrompt = "你是一个高级全栈工程师和Vue 3专家。你的任务是根据项目上下文和需求生成代码。\n" +
+    /**
+     * 项目上下文的token预算：模型上下文窗口减去输出上限、系统提示词和需求，且不超过 ai.context.max-tokens
+     */
+    private int contextBudget(ResolvedAIConfig aiConfig, String systemPrompt, String requirement) {
+        int window = aiConfig.getContextWindow() != null
+            ? aiConfig.getContextWindow()
+            : aiConfigService.getContextWindow(aiConfig.getProviderId(), aiConfig.getModelId(), defaultContextWindow);
+        int maxOutput = providerRegistry.resolve(aiConfig.getProviderId(), aiConfig.getModelId(), aiConfig.getSettings())
+            .getAdapter().capabilities().getMaxOutputTokens();
+        int budget = window - maxOutput - PromptContextBuilder.estimateTokens(systemPrompt)
+            - PromptContextBuilder.estimateTokens(requirement) - 256;
+        return Math.max(512, Math.min(maxContextTokens, budget));
+    }
+
+    private String buildSystemPrompt() {
+        return "你是一个高级全栈工程师和Vue 3专家。你的任务是根据项目上下文和需求生成代码。\n" +
             "必须遵守以下规则：\n" +
             "1. 生成的代码必须符合Vue 3 Composition API规范，使用<script setup>。\n" +
             "2. 使用TypeScript。\n" +
@@ -139,9 +467,37 @@ public class SmartCodeGeneratorService {
             "6. 不要返回任何Markdown代码块标记（如```xml），只返回XML内容。\n" +
             "7. 确保生成的代码完整、可运行，包含所有必要的导入。\n" +
             "8. 如果是简单工具或单页面应用，**不要**使用 vue-router，请直接在 App.vue 中引入并渲染主要组件（如 <JsonFormatter />）。只有在确实需要多页面导航时才使用路由，并且必须生成 router/index.ts 配置文件。";
-            
-        String userPrompt = "项目目录结构：\n" + structure + "\n\n" +
-            "项目依赖(package.json)：\n" + dependencies + "\n\n" +
+    }
+
+    // 编辑模式：已有文件只返回 SEARCH/REPLACE 修改块，新文件仍返回完整内容
+    private String buildEditSystemPrompt() {
+        return "你是一个高级全栈工程师和Vue 3专家。你的任务是根据项目上下文和需求修改现有代码。\n" +
+            "必须遵守以下规则：\n" +
+            "1. 代码必须符合Vue 3 Composition API规范，使用<script setup>和TypeScript，遵循项目现有的目录结构和命名规范。\n" +
+            "2. 项目根目录即为源代码目录，文件路径不要包含 'src/' 前缀。\n" +
+            "3. 修改已有文件时不要返回完整文件，只返回修改块。每个修改块的 SEARCH 部分必须与原文件中连续的若干行完全一致（包括缩进），" +
+            "且足以在文件中唯一定位；REPLACE 部分是替换后的内容。同一文件的多个修改块按在文件中出现的顺序排列。\n" +
+            "4. 新建的文件返回完整内容。\n" +
+            "5. 返回格式如下：\n" +
+            "<response>\n" +
+            "  <edit path=\"views/Home.vue\">\n" +
+            "<<<<<<< SEARCH\n" +
+            "const count = ref(0)\n" +
+            "=======\n" +
+            "const count = ref(10)\n" +
+            ">>>>>>> REPLACE\n" +
+            "  </edit>\n" +
+            "  <file path=\"components/NewPart.vue\">\n" +
+            "    <![CDATA[\n" +
+            "      <template>...</template>\n" +
+            "    ]]>\n" +
+            "  </file>\n" +
+            "</response>\n" +
+            "6. 不要返回任何Markdown代码块标记，只返回XML内容。";
+    }
+
+    private List<Map<String, Object>> buildPrompt(String systemPrompt, String projectContext, String requirement) {
+        String userPrompt = projectContext + "\n" +
             "开发需求：\n" + requirement;
             
         List<Map<String, Object>> messages = new ArrayList<>();
@@ -161,22 +517,12 @@ public class SmartCodeGeneratorService {
     private List<Map<String, String>> parseGeneratedContent(String content) {
         List<Map<String, String>> files = new ArrayList<>();
         
-        // 简单的XML解析，使用正则
-        Pattern filePattern = Pattern.compile("<file path=\"([^\"]+)\">\\s*(?:<!\\[CDATA\\[)?(.*?)(?:\\]\\]>)?\\s*</file>", Pattern.DOTALL);
-        Matcher matcher = filePattern.matcher(content);
-        
-        while (matcher.find()) {
-            Map<String, String> file = new HashMap<>();
-            String path = matcher.group(1);
-            
-            // 如果AI不听话，仍然生成了src/前缀，我们强制去掉它
-            if (path.startsWith("src/")) {
-                path = path.substring(4);
-            }
-            
-            file.put("path", path);
-            file.put("content", matcher.group(2).trim());
-            files.add(file);
+        // 流式状态机解析 <file> 块
+        FileBlockParser parser = new FileBlockParser(file -> files.add(normalizeFile(file)));
+        parser.feed(content);
+        parser.finish();
+        if (parser.getTruncatedPath() != null) {
+            logger.warn("AI输出被截断，丢弃未完成的文件: {}", parser.getTruncatedPath());
         }
         
         if (files.isEmpty()) {
@@ -188,62 +534,97 @@ public class SmartCodeGeneratorService {
         return files;
     }
     
-    private void updateProjectFiles(List<Map<String, Object>> projectTree, List<Map<String, String>> newFiles) {
-        for (Map<String, String> newFile : newFiles) {
-            String path = newFile.get("path");
-            String content = newFile.get("content");
-            String[] parts = path.split("/");
+    private static Map<String, String> normalizeFile(Map<String, String> file) {
+        String path = file.get("path");
+        
+        // 如果AI不听话，仍然生成了src/前缀，我们强制去掉它
+        if (path.startsWith("src/")) {
+            file.put("path", path.substring(4));
+        }
+        return file;
+    }
+
+    /**
+     * 乐观写入：以读取快照时的 version 为条件更新，期间项目被其他请求修改时重新读取最新内容合并后重试
+     */
+    private void saveProjectFiles(ModuleContext context, List<Map<String, String>> files) throws Exception {
+        // 如果源是flat map (currentFiles)，说明没有原始的Tree结构，从DB读取最新的Tree来更新
+        ParsedProject project = context.project.isTreeShaped() ? context.project : null;
+        Integer version = context.version;
+        
+        for (int attempt = 1; ; attempt++) {
+            if (project == null || version == null) {
+                ProjectStore.Snapshot snapshot = projectStore.read(context.projectId);
+                if (snapshot == null) {
+                    throw new RuntimeException("项目不存在: " + context.projectId);
+                }
+                project = projectParseCache.get(snapshot.getContent());
+                version = snapshot.getVersion();
+            }
             
-            List<Map<String, Object>> currentLevel = projectTree;
+            // 缓存中的树是共享的，在副本上修改
+            ProjectTree projectTree = project.copyTree();
+            for (Map<String, String> file : files) {
+                projectTree.putFile(file.get("path"), file.get("content"));
+            }
             
-            for (int i = 0; i < parts.length; i++) {
-                String part = parts[i];
-                boolean isFile = (i == parts.length - 1);
-                
-                Map<String, Object> existingNode = findNode(currentLevel, part);
-                
-                if (existingNode != null) {
-                    if (isFile) {
-                        // 更新文件内容
-                        existingNode.put("content", content);
-                    } else {
-                        // 进入下一级目录
-                        if (!existingNode.containsKey("children")) {
-                            existingNode.put("children", new ArrayList<>());
-                        }
-                        currentLevel = (List<Map<String, Object>>) existingNode.get("children");
-                    }
-                } else {
-                    // 创建新节点
-                    Map<String, Object> newNode = new HashMap<>();
-                    newNode.put("name", part);
-                    newNode.put("type", isFile ? "file" : "folder"); // 这里的类型要跟前端一致
-                    if (isFile) {
-                        newNode.put("content", content);
-                    } else {
-                        newNode.put("children", new ArrayList<>());
-                    }
-                    currentLevel.add(newNode);
-                    
-                    if (!isFile) {
-                        currentLevel = (List<Map<String, Object>>) newNode.get("children");
-                    }
-                }
+            // 9. 保存回数据库（只写入有变化的文件内容）
+            String newContentJson = projectTree.toJson();
+            if (projectStore.save(context.projectId, projectTree, newContentJson, version) >= 0) {
+                // 下一次生成读取到的就是这份内容，预先放入解析缓存
+                projectParseCache.put(newContentJson, projectTree);
+                return;
+            }
+            if (attempt >= MAX_SAVE_ATTEMPTS) {
+                throw new RuntimeException("项目已被其他操作修改，保存冲突");
             }
+            logger.info("Project {} changed during generation (version {}), merging again", context.projectId, version);
+            project = null;
         }
     }
-    
-    private Map<String, Object> findNode(List<Map<String, Object>> nodes, String name) {
-        if (nodes == null) return null;
-        for (Map<String, Object> node : nodes) {
-            if (name.equals(node.get("name"))) {
-                return node;
-            }
+
+    // 一次模块生成在调用AI前准备好的上下文
+    private static class ModuleContext {
+        Integer projectId;
+        Integer userId;
+        Object contentObj;
+        // 从DB读取项目内容时的版本号，用于乐观写入
+        Integer version;
+        AIConfig aiConfig;
+        Map<String, Object> configMap;
+        // 推测式生成的全部候选配置，第一个即 aiConfig
+        List<AIConfig> candidates;
+        List<Map<String, Object>> candidateConfigMaps;
+        ParsedProject project;
+        List<Map<String, Object>> messages;
+        // 由 ModelRouter 选择配置时的依据
+        String routeReason;
+    }
+
+    private static class Candidate {
+        final int index;
+        final List<Map<String, String>> files;
+
+        Candidate(int index, List<Map<String, String>> files) {
+            this.index = index;
+            this.files = files;
         }
-        return null;
     }
 
-    private void validateGeneratedFiles(List<Map<String, String>> files, String packageJsonContent, String gitIgnoreContent) {
+    public Map<String, Object> getSpeculativeStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxCandidates", maxCandidates);
+        stats.put("runs", speculativeRuns.get());
+        stats.put("primaryWins", primaryWins.get());
+        stats.put("alternateWins", alternateWins.get());
+        stats.put("failures", speculativeFailures.get());
+        return stats;
+    }
+
+    private void validateGeneratedFiles(List<Map<String, String>> files, ParsedProject project) {
+        Set<String> dependencies = project.getDependencies();
+        GitIgnoreMatcher ignoreMatcher = project.getIgnoreMatcher();
+
         // 1. Naming Convention
         for (Map<String, String> file : files) {
             String path = file.get("path");
@@ -254,73 +635,53 @@ public class SmartCodeGeneratorService {
         }
 
         // 2. GitIgnore Check
-        if (gitIgnoreContent != null && !gitIgnoreContent.isEmpty()) {
-             List<String> ignoredPatterns = Arrays.asList(gitIgnoreContent.split("\n"));
-             for (Map<String, String> file : files) {
-                 String path = file.get("path");
-                 for (String pattern : ignoredPatterns) {
-                     pattern = pattern.trim();
-                     if (pattern.isEmpty() || pattern.startsWith("#")) continue;
-                     if (simpleGlobMatch(path, pattern)) {
-                          throw new RuntimeException("违反版本控制规则: 文件被.gitignore忽略 (" + path + " 匹配规则 " + pattern + ")");
-                     }
-                 }
-             }
+        for (Map<String, String> file : files) {
+            String path = file.get("path");
+            String rule = ignoreMatcher.matchingRule(path);
+            if (rule != null) {
+                throw new RuntimeException("违反版本控制规则: 文件被.gitignore忽略 (" + path + " 匹配规则 " + rule + ")");
+            }
         }
          
         // 3. Dependency Check - 开放平台：只检测不自动添加，提示用户提交心愿单
-        Set<String> missingDeps = new HashSet<>();
-        if (packageJsonContent != null) {
-            try {
-                Map<String, Object> pkg = objectMapper.readValue(packageJsonContent, Map.class);
-                Map<String, Object> dependencies = pkg.containsKey("dependencies") ? (Map<String, Object>) pkg.get("dependencies") : new HashMap<>();
-                
-                Pattern importPattern = Pattern.compile("import\\s+.*?\\s+from\\s+['\"]([^'\"]+)['\"]");
-                for (Map<String, String> file : files) {
-                    Matcher matcher = importPattern.matcher(file.get("content"));
-                    while (matcher.find()) {
-                        String importPath = matcher.group(1);
-                        if (importPath.startsWith(".") || importPath.startsWith("@") || importPath.startsWith("/")) continue;
-                        
-                        String pkgName = importPath;
-                        if (pkgName.startsWith("@")) {
-                             String[] parts = pkgName.split("/");
-                             if (parts.length >= 2) pkgName = parts[0] + "/" + parts[1];
-                        } else {
-                             if (pkgName.contains("/")) pkgName = pkgName.split("/")[0];
-                        }
-                        
-                        // 检测未预置的依赖
-                        if (!dependencies.containsKey(pkgName) && !isBuiltIn(pkgName)) {
-                            missingDeps.add(pkgName);
-                        }
+        // 各文件并行扫描全部导入（import/export from、import()、require）
+        Map<String, Set<String>> imports = files.parallelStream().collect(Collectors.toConcurrentMap(
+            file -> file.get("path"), file -> ImportScanner.scan(file.get("path"), file.get("content")), (a, b) -> a));
+
+        Set<String> generatedPaths = new HashSet<>();
+        for (Map<String, String> file : files) {
+            generatedPaths.add(file.get("path"));
+        }
+        Set<String> missingDeps = new TreeSet<>();
+        List<String> unresolved = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : imports.entrySet()) {
+            for (String specifier : entry.getValue()) {
+                if (ImportScanner.isLocal(specifier)) {
+                    if (ProjectImportGraph.resolve(entry.getKey(), specifier, path -> generatedPaths.contains(path) || project.getFiles().containsKey(path)) == null) {
+                        unresolved.add(entry.getKey() + " -> " + specifier);
                     }
+                    continue;
                 }
+                String pkgName = ImportScanner.packageName(specifier);
+                // @scope/ 开头的包不做检查
+                if (dependencies == null || pkgName == null || pkgName.startsWith("@")) continue;
                 
-                if (!missingDeps.isEmpty()) {
-                    String depList = String.join(", ", missingDeps);
-                    throw new RuntimeException("依赖未预置: " + depList + "。请通过「应用市场」→「心愿单」提交新依赖申请，管理员审核后将在24小时内添加。");
+                // 检测未预置的依赖
+                if (!dependencies.contains(pkgName) && !isBuiltIn(pkgName)) {
+                    missingDeps.add(pkgName);
                 }
-            } catch (RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                logger.warn("依赖验证跳过: " + e.getMessage());
             }
         }
-    }
-    
-    private boolean simpleGlobMatch(String path, String pattern) {
-        pattern = pattern.trim();
-        if (pattern.startsWith("/")) pattern = pattern.substring(1);
-        if (pattern.endsWith("/")) {
-            return path.startsWith(pattern) || path.contains("/" + pattern);
+        if (!unresolved.isEmpty()) {
+            logger.warn("生成的文件中存在无法解析的本地导入: {}", unresolved);
         }
-        if (pattern.contains("*")) {
-             String regex = pattern.replace(".", "\\.").replace("*", ".*");
-             return path.matches(".*" + regex + ".*");
+        if (!missingDeps.isEmpty()) {
+            String depList = String.join(", ", missingDeps);
+            throw new RuntimeException("依赖未预置: " + depList + "。请通过「应用市场」→「心愿单」提交新依赖申请，管理员审核后将在24小时内添加。");
         }
-        return path.equals(pattern) || path.endsWith("/" + pattern) || path.contains("/" + pattern + "/");
     }
+    
+    private static final int MAX_SAVE_ATTEMPTS = 3;
 
     // 预置常用依赖列表（开放平台支持这些依赖）
     private static final Set<String> BUILT_IN_DEPS = new HashSet<>(Arrays.asList(
@@ -0,0 +1,86 @@
+package com.vueai.server.service.provider;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.vueai.server.util.JsonStreamReader;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Anthropic Messages API：system 消息需放在顶层 system 字段，流式增量为 content_block_delta 事件
+ */
+@Component
+@Order(20)
+public class AnthropicAdapter implements ProviderAdapter {
+
+    private final ProviderCapabilities capabilities = new ProviderCapabilities(4096, true, false);
+
+    @Override
+    public boolean supports(String providerId, String baseUrl) {
+        return "anthropic".equals(providerId);
+    }
+
+    @Override
+    public ProviderCapabilities capabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public ProviderEndpoint resolve(Map<String, Object> config, String model) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("x-api-key", (String) config.get("apiKey"));
+        headers.set("anthropic-version", "2023-06-01");
+        return new ProviderEndpoint(this, "Anthropic", "https://api.anthropic.com/v1/messages", headers, model);
+    }
+
+    @Override
+    public Map<String, Object> encode(ProviderEndpoint endpoint, List<Map<String, Object>> messages, boolean stream, int maxOutputTokens) {
+        StringBuilder system = new StringBuilder();
+        List<Map<String, Object>> conversation = new ArrayList<>();
+        for (Map<String, Object> message : messages) {
+            if ("system".equals(message.get("role"))) {
+                if (system.length() > 0) system.append("\n\n");
+                system.append(message.get("content"));
+            } else {
+                conversation.add(message);
+            }
+        }
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", endpoint.getModel());
+        body.put("max_tokens", maxOutputTokens);
+        body.put("messages", conversation);
+        if (system.length() > 0) {
+            body.put("system", system.toString());
+        }
+        if (stream) {
+            body.put("stream", true);
+        }
+        return body;
+    }
+
+    @Override
+    public String decode(InputStream body) throws IOException {
+        try (JsonParser parser = JsonStreamReader.parser(body)) {
+            if (!JsonStreamReader.seek(parser, "content", "[0]")) {
+                throw new RuntimeException("API返回空响应");
+            }
+            return JsonStreamReader.firstText(parser, "text");
+        }
+    }
+
+    // 只有 content_block_delta 事件的 delta 带有 text 字段
+    @Override
+    public String decodeStreamEvent(String data) throws IOException {
+        try (JsonParser parser = JsonStreamReader.parser(data)) {
+            if (!JsonStreamReader.seek(parser, "delta")) return null;
+            return JsonStreamReader.firstText(parser, "text");
+        }
+    }
+}
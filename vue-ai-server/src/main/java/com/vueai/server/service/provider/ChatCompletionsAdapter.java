@@ -0,0 +1,81 @@
+package com.vueai.server.service.provider;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.vueai.server.util.JsonStreamReader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * OpenAI Chat Completions 兼容协议的公共实现，子类只需提供地址与鉴权方式
+ */
+public abstract class ChatCompletionsAdapter implements ProviderAdapter {
+
+    private final ProviderCapabilities capabilities;
+
+    protected ChatCompletionsAdapter(ProviderCapabilities capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    protected abstract String name();
+
+    protected abstract String url(Map<String, Object> config);
+
+    protected abstract void authorize(HttpHeaders headers, String apiKey);
+
+    protected String model(String model) {
+        return model;
+    }
+
+    @Override
+    public ProviderCapabilities capabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public ProviderEndpoint resolve(Map<String, Object> config, String model) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        authorize(headers, (String) config.get("apiKey"));
+        return new ProviderEndpoint(this, name(), url(config), headers, model(model));
+    }
+
+    @Override
+    public Map<String, Object> encode(ProviderEndpoint endpoint, List<Map<String, Object>> messages, boolean stream, int maxOutputTokens) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", endpoint.getModel());
+        body.put("messages", messages);
+        body.put("max_tokens", maxOutputTokens);
+        body.put("temperature", 0.7);
+        if (stream) {
+            body.put("stream", true);
+        }
+        return body;
+    }
+
+    @Override
+    public String decode(InputStream body) throws IOException {
+        try (JsonParser parser = JsonStreamReader.parser(body)) {
+            if (!JsonStreamReader.seek(parser, "choices", "[0]", "message")) {
+                throw new RuntimeException("API返回空响应");
+            }
+            return JsonStreamReader.firstText(parser, "content", "reasoning_content");
+        }
+    }
+
+    @Override
+    public String decodeStreamEvent(String data) throws IOException {
+        try (JsonParser parser = JsonStreamReader.parser(data)) {
+            if (!JsonStreamReader.seek(parser, "choices", "[0]", "delta")) return null;
+            return JsonStreamReader.firstText(parser, "content");
+        }
+    }
+
+    protected static String baseUrl(Map<String, Object> config, String defaultUrl) {
+        Object baseUrl = config.get("baseUrl");
+        return baseUrl == null || baseUrl.toString().isEmpty() ? defaultUrl : baseUrl.toString();
+    }
+}
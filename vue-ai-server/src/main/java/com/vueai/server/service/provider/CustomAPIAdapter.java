@@ -0,0 +1,44 @@
+package com.vueai.server.service.provider;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// 自定义的 OpenAI 兼容接口，baseUrl 即完整请求地址；作为未识别提供商的兜底
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class CustomAPIAdapter extends ChatCompletionsAdapter {
+
+    public CustomAPIAdapter() {
+        super(new ProviderCapabilities(4096, true, false));
+    }
+
+    @Override
+    public boolean supports(String providerId, String baseUrl) {
+        return true;
+    }
+
+    @Override
+    protected String name() {
+        return "Custom";
+    }
+
+    @Override
+    protected String url(Map<String, Object> config) {
+        String baseUrl = (String) config.get("baseUrl");
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            throw new RuntimeException("API地址未配置，请先配置API地址");
+        }
+        return baseUrl;
+    }
+
+    @Override
+    protected void authorize(HttpHeaders headers, String apiKey) {
+        if (apiKey != null && !apiKey.isEmpty()) {
+            headers.setBearerAuth(apiKey);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.vueai.server.service.provider;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// 本地 Ollama 的 OpenAI 兼容接口，无需鉴权
+@Component
+@Order(40)
+public class OllamaAdapter extends ChatCompletionsAdapter {
+
+    public OllamaAdapter() {
+        super(new ProviderCapabilities(4096, true, true));
+    }
+
+    @Override
+    public boolean supports(String providerId, String baseUrl) {
+        return "ollama".equals(providerId);
+    }
+
+    @Override
+    protected String name() {
+        return "Ollama";
+    }
+
+    @Override
+    protected String url(Map<String, Object> config) {
+        return baseUrl(config, "http://localhost:11434/v1") + "/chat/completions";
+    }
+
+    @Override
+    protected void authorize(HttpHeaders headers, String apiKey) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.vueai.server.service.provider;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+@Component
+@Order(10)
+public class OpenAIAdapter extends ChatCompletionsAdapter {
+
+    public OpenAIAdapter() {
+        super(new ProviderCapabilities(4096, true, true));
+    }
+
+    @Override
+    public boolean supports(String providerId, String baseUrl) {
+        return "openai".equals(providerId);
+    }
+
+    @Override
+    protected String name() {
+        return "OpenAI";
+    }
+
+    @Override
+    protected String url(Map<String, Object> config) {
+        return baseUrl(config, "https://api.openai.com/v1") + "/chat/completions";
+    }
+
+    @Override
+    protected void authorize(HttpHeaders headers, String apiKey) {
+        if (apiKey != null && apiKey.startsWith("sk-")) {
+            headers.setBearerAuth(apiKey);
+        }
+    }
+}
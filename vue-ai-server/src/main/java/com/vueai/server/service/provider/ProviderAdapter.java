@@ -0,0 +1,44 @@
+package com.vueai.server.service.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AI提供商适配器：负责识别提供商、解析配置、编码请求体以及解码响应。
+ * 每个实现注册为Spring Bean，由 ProviderRegistry 按 @Order 顺序匹配
+ */
+public interface ProviderAdapter {
+
+    /**
+     * 是否处理该提供商/地址
+     */
+    boolean supports(String providerId, String baseUrl);
+
+    ProviderCapabilities capabilities();
+
+    /**
+     * 根据用户配置预先计算请求地址、请求头和实际模型名
+     */
+    ProviderEndpoint resolve(Map<String, Object> config, String model);
+
+    default Map<String, Object> encode(ProviderEndpoint endpoint, List<Map<String, Object>> messages, boolean stream) {
+        return encode(endpoint, messages, stream, capabilities().getMaxOutputTokens());
+    }
+
+    /**
+     * 编码请求体，最大输出token数按提供商各自的字段设置
+     */
+    Map<String, Object> encode(ProviderEndpoint endpoint, List<Map<String, Object>> messages, boolean stream, int maxOutputTokens);
+
+    /**
+     * 从非流式响应的输入流中直接取出生成文本
+     */
+    String decode(InputStream body) throws IOException;
+
+    /**
+     * 从一条SSE data 事件中取出增量文本，没有文本时返回null
+     */
+    String decodeStreamEvent(String data) throws IOException;
+}
@@ -0,0 +1,29 @@
+package com.vueai.server.service.provider;
+
+/**
+ * 提供商能力声明
+ */
+public class ProviderCapabilities {
+
+    private final int maxOutputTokens;
+    private final boolean streaming;
+    private final boolean jsonMode;
+
+    public ProviderCapabilities(int maxOutputTokens, boolean streaming, boolean jsonMode) {
+        this.maxOutputTokens = maxOutputTokens;
+        this.streaming = streaming;
+        this.jsonMode = jsonMode;
+    }
+
+    public int getMaxOutputTokens() {
+        return maxOutputTokens;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public boolean isJsonMode() {
+        return jsonMode;
+    }
+}
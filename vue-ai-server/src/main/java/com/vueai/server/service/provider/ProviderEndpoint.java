@@ -0,0 +1,43 @@
+package com.vueai.server.service.provider;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * 一份AI配置解析后的调用目标，由 ProviderRegistry 缓存复用
+ */
+public class ProviderEndpoint {
+
+    private final ProviderAdapter adapter;
+    private final String name;
+    private final String url;
+    private final HttpHeaders headers;
+    private final String model;
+
+    public ProviderEndpoint(ProviderAdapter adapter, String name, String url, HttpHeaders headers, String model) {
+        this.adapter = adapter;
+        this.name = name;
+        this.url = url;
+        this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        this.model = model;
+    }
+
+    public ProviderAdapter getAdapter() {
+        return adapter;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public String getModel() {
+        return model;
+    }
+}
@@ -0,0 +1,44 @@
+package com.vueai.server.service.provider;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 按 @Order 顺序匹配提供商适配器，并按配置内容缓存解析结果，调用时不再重复匹配与拼装请求头
+ */
+@Component
+public class ProviderRegistry {
+
+    @Autowired
+    private List<ProviderAdapter> adapters;
+
+    private final Cache<String, ProviderEndpoint> endpoints = Caffeine.newBuilder()
+            .maximumSize(256)
+            .build();
+
+    public ProviderEndpoint resolve(String provider, String model, Map<String, Object> config) {
+        if (config.get("modelName") != null) {
+            model = config.get("modelName").toString();
+        }
+        String providerId = provider.toLowerCase();
+        String baseUrl = config.get("baseUrl") != null ? config.get("baseUrl").toString() : null;
+        String resolvedModel = model;
+
+        String key = String.join("\u0000", providerId, String.valueOf(model), String.valueOf(baseUrl),
+                String.valueOf(config.get("apiKey")));
+        return endpoints.get(key, k -> adapter(providerId, baseUrl).resolve(config, resolvedModel));
+    }
+
+    private ProviderAdapter adapter(String providerId, String baseUrl) {
+        for (ProviderAdapter adapter : adapters) {
+            if (adapter.supports(providerId, baseUrl)) {
+                return adapter;
+            }
+        }
+        throw new IllegalStateException("No provider adapter for " + providerId);
+    }
+}
@@ -0,0 +1,37 @@
+package com.vueai.server.service.provider;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// 通义千问 DashScope 的 OpenAI 兼容模式
+@Component
+@Order(30)
+public class QwenAdapter extends ChatCompletionsAdapter {
+
+    public QwenAdapter() {
+        super(new ProviderCapabilities(4096, true, true));
+    }
+
+    @Override
+    public boolean supports(String providerId, String baseUrl) {
+        return "qwen".equals(providerId);
+    }
+
+    @Override
+    protected String name() {
+        return "Qwen";
+    }
+
+    @Override
+    protected String url(Map<String, Object> config) {
+        return "https://dashscope.aliyuncs.com/compatible-mode/v1/chat/completions";
+    }
+
+    @Override
+    protected void authorize(HttpHeaders headers, String apiKey) {
+        headers.set("Authorization", "Bearer " + apiKey);
+    }
+}
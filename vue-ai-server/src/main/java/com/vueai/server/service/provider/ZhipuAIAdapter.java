@@ -0,0 +1,59 @@
+package com.vueai.server.service.provider;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+// 智谱AI：按提供商ID或 bigmodel.cn 地址识别，优先于其他适配器匹配
+@Component
+@Order(0)
+public class ZhipuAIAdapter extends ChatCompletionsAdapter {
+
+    private static final Map<String, String> ZHIPU_MODELS = new HashMap<>();
+    static {
+        ZHIPU_MODELS.put("glm-4", "GLM-4");
+        ZHIPU_MODELS.put("glm-4v", "GLM-4V");
+        ZHIPU_MODELS.put("glm-3-turbo", "GLM-3-Turbo");
+        ZHIPU_MODELS.put("chatglm_turbo", "ChatGLM-Turbo");
+        ZHIPU_MODELS.put("chatglm_pro", "ChatGLM-Pro");
+        ZHIPU_MODELS.put("chatglm_std", "ChatGLM-Std");
+        ZHIPU_MODELS.put("chatglm_lite", "ChatGLM-Lite");
+    }
+
+    public ZhipuAIAdapter() {
+        super(new ProviderCapabilities(4096, true, true));
+    }
+
+    @Override
+    public boolean supports(String providerId, String baseUrl) {
+        return providerId.contains("zhipu")
+                || providerId.equals("glm")
+                || (baseUrl != null && baseUrl.toLowerCase().contains("bigmodel.cn"));
+    }
+
+    @Override
+    protected String name() {
+        return "ZhipuAI";
+    }
+
+    @Override
+    protected String url(Map<String, Object> config) {
+        String baseUrl = baseUrl(config, "https://open.bigmodel.cn/api/paas/v4");
+        return baseUrl + (baseUrl.endsWith("/") ? "" : "/") + "chat/completions";
+    }
+
+    @Override
+    protected void authorize(HttpHeaders headers, String apiKey) {
+        headers.set("Authorization", apiKey);
+    }
+
+    @Override
+    protected String model(String model) {
+        if (!ZHIPU_MODELS.containsKey(model.toLowerCase()) && !model.toLowerCase().contains("glm")) {
+            return "glm-4";
+        }
+        return model;
+    }
+}
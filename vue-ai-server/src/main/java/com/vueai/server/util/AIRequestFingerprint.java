@@ -0,0 +1,84 @@
+package com.vueai.server.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * AI请求指纹：用于响应缓存与并发请求合并
+ */
+public class AIRequestFingerprint {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 计算请求指纹：提供商与模型忽略大小写，消息内容折叠空白；apiKey 以其哈希参与计算，
+     * 不同Key的请求不会被合并，也不会共享缓存结果、错误和配额
+     */
+    public static String of(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages) {
+        return of(provider, model, config, messages, true);
+    }
+
+    /**
+     * includeKey 为 false 时 apiKey 不参与计算，相同请求在所有Key之间共用同一指纹
+     */
+    public static String of(String provider, String model, Map<String, Object> config, List<Map<String, Object>> messages,
+                            boolean includeKey) {
+        Object modelName = config.get("modelName");
+        Map<String, Object> key = new LinkedHashMap<>();
+        key.put("provider", provider == null ? "" : provider.toLowerCase());
+        key.put("model", (modelName != null ? modelName.toString() : String.valueOf(model)).toLowerCase());
+        key.put("baseUrl", config.get("baseUrl"));
+        Object apiKey = includeKey ? config.get("apiKey") : null;
+        key.put("apiKey", apiKey != null ? keyHash(apiKey.toString()) : null);
+        key.put("temperature", config.getOrDefault("temperature", 0.7).toString());
+
+        List<List<String>> normalized = new ArrayList<>();
+        for (Map<String, Object> message : messages) {
+            normalized.add(Arrays.asList(String.valueOf(message.get("role")), normalize(String.valueOf(message.get("content")))));
+        }
+        key.put("messages", normalized);
+
+        try {
+            return sha256(objectMapper.writeValueAsBytes(key));
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to fingerprint AI request", e);
+        }
+    }
+
+    // apiKey 的 SHA-256 哈希，用于在指纹和限流桶中区分Key而不保存Key本身
+    public static String keyHash(String apiKey) {
+        return sha256(apiKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to fingerprint AI request", e);
+        }
+    }
+
+    private static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) sb.append(' ');
+                sb.append(c);
+                space = false;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,255 @@
+package com.vueai.server.util;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 增量解析AI输出中的 &lt;file path="..."&gt; 块（或其他指定标签，如编辑模式的 &lt;edit&gt;）：按流式增量逐段喂入，每个文件块结束时立即回调。
+ * 容忍缺失的 CDATA、缺失的 &lt;/file&gt;（遇到下一个 &lt;file 视为结束）、文件内容外层多余的代码块标记，
+ * 以及输出被截断（未结束的文件块不会回调，可通过 getTruncatedPath 获取）
+ */
+public class FileBlockParser {
+
+    private static final String CDATA_OPEN = "<![CDATA[";
+    private static final String CDATA_CLOSE = "]]>";
+    private static final String RESPONSE_CLOSE = "</response>";
+
+    private static final int UNKNOWN = 0;
+    private static final int PLAIN = 1;
+    private static final int CDATA = 2;
+
+    private final String openTag;
+    private final String closeTag;
+    private final Consumer<Map<String, String>> onFile;
+    // 尚未处理的文本；处于文件块内时从文件内容起点开始
+    private final StringBuilder buffer = new StringBuilder();
+    private String path;
+    private int mode = UNKNOWN;
+    private int scanFrom;
+    private String truncatedPath;
+
+    public FileBlockParser(Consumer<Map<String, String>> onFile) {
+        this("file", onFile);
+    }
+
+    public FileBlockParser(String tag, Consumer<Map<String, String>> onFile) {
+        this.openTag = "<" + tag;
+        this.closeTag = "</" + tag + ">";
+        this.onFile = onFile;
+    }
+
+    public static List<Map<String, String>> parse(String content) {
+        return parse(content, "file");
+    }
+
+    public static List<Map<String, String>> parse(String content, String tag) {
+        List<Map<String, String>> files = new ArrayList<>();
+        FileBlockParser parser = new FileBlockParser(tag, files::add);
+        parser.feed(content);
+        parser.finish();
+        return files;
+    }
+
+    public void feed(String chunk) {
+        buffer.append(chunk);
+        while (path == null ? readOpenTag() : readBody()) {
+            // 继续处理缓冲区中剩余的完整块
+        }
+    }
+
+    /**
+     * 输入结束：缺少 &lt;/file&gt; 但已到达 &lt;/response&gt; 的文件块仍然输出，否则视为被截断
+     */
+    public void finish() {
+        if (path == null) return;
+        String rest = buffer.toString();
+        int responseEnd = rest.lastIndexOf(RESPONSE_CLOSE);
+        if (mode == CDATA) {
+            int close = rest.lastIndexOf(CDATA_CLOSE);
+            String tail = close < 0 ? null : rest.substring(close + CDATA_CLOSE.length()).replace(RESPONSE_CLOSE, "").replace("```", "").trim();
+            // ]]> 之后只剩空白或不完整的 </file>
+            if (tail != null && closeTag.startsWith(tail)) {
+                emit(rest.substring(0, close));
+                return;
+            }
+            if (rest.contains(closeTag)) {
+                // CDATA 没有闭合，按普通文本重新解析剩余内容
+                mode = PLAIN;
+                scanFrom = 0;
+                feed("");
+                finish();
+                return;
+            }
+        } else if (responseEnd >= 0) {
+            emit(rest.substring(0, responseEnd));
+            return;
+        }
+        truncatedPath = path;
+        path = null;
+        buffer.setLength(0);
+    }
+
+    // 被截断而未输出的文件路径
+    public String getTruncatedPath() {
+        return truncatedPath;
+    }
+
+    private boolean readOpenTag() {
+        int start = indexOfOpen(0);
+        if (start < 0) {
+            // 保留可能是半个 "<file" 的结尾
+            buffer.delete(0, Math.max(0, buffer.length() - openTag.length()));
+            return false;
+        }
+        int end = buffer.indexOf(">", start);
+        if (end < 0) {
+            buffer.delete(0, start);
+            return false;
+        }
+        String tag = buffer.substring(start, end);
+        buffer.delete(0, end + 1);
+        path = attribute(tag, "path");
+        mode = UNKNOWN;
+        scanFrom = 0;
+        return true;
+    }
+
+    private boolean readBody() {
+        if (mode == UNKNOWN) {
+            int i = skipSpace(0);
+            int n = Math.min(buffer.length() - i, CDATA_OPEN.length());
+            if (n == 0) return false;
+            if (regionMatches(i, CDATA_OPEN.substring(0, n))) {
+                if (n < CDATA_OPEN.length()) return false;
+                buffer.delete(0, i + CDATA_OPEN.length());
+                mode = CDATA;
+            } else {
+                mode = PLAIN;
+            }
+            scanFrom = 0;
+        }
+
+        if (mode == CDATA) {
+            // CDATA 内的 <file 和 </file> 都是文件内容，只有 ]]> 后紧跟的标签才结束文件块
+            while (true) {
+                int close = buffer.indexOf(CDATA_CLOSE, scanFrom);
+                int unclosed = unclosedCdataEnd(scanFrom, close < 0 ? buffer.length() : close);
+                if (unclosed >= 0) {
+                    emit(buffer.substring(0, unclosed));
+                    buffer.delete(0, unclosed + closeTag.length());
+                    return true;
+                }
+                if (close < 0) {
+                    // 回看的长度足以覆盖跨段到达的 "</file>\n<file "
+                    scanFrom = Math.max(0, buffer.length() - 16);
+                    return false;
+                }
+                int i = skipSpace(close + CDATA_CLOSE.length());
+                if (i + closeTag.length() > buffer.length()) {
+                    scanFrom = close;
+                    return false;
+                }
+                if (regionMatches(i, closeTag)) {
+                    emit(buffer.substring(0, close));
+                    buffer.delete(0, i + closeTag.length());
+                    return true;
+                }
+                if (indexOfOpen(i) == i) {
+                    emit(buffer.substring(0, close));
+                    buffer.delete(0, i);
+                    return true;
+                }
+                scanFrom = close + 1;
+            }
+        }
+
+        int close = buffer.indexOf(closeTag, scanFrom);
+        int next = indexOfOpen(scanFrom);
+        if (next >= 0 && (close < 0 || next < close)) {
+            // 缺少 </file>，下一个文件块开始即视为当前块结束
+            emit(buffer.substring(0, next));
+            buffer.delete(0, next);
+            return true;
+        }
+        if (close >= 0) {
+            emit(buffer.substring(0, close));
+            buffer.delete(0, close + closeTag.length());
+            return true;
+        }
+        scanFrom = Math.max(0, buffer.length() - closeTag.length());
+        return false;
+    }
+
+    private void emit(String content) {
+        String filePath = path;
+        path = null;
+        mode = UNKNOWN;
+        scanFrom = 0;
+        if (filePath == null) return;
+
+        Map<String, String> file = new HashMap<>();
+        file.put("path", filePath);
+        file.put("content", stripFences(content.trim()));
+        onFile.accept(file);
+    }
+
+    // 去掉包在文件内容外层的 ```lang ... ```
+    private static String stripFences(String content) {
+        if (content.startsWith("```")) {
+            int lineEnd = content.indexOf('\n');
+            content = lineEnd < 0 ? "" : content.substring(lineEnd + 1);
+        }
+        if (content.endsWith("```")) {
+            content = content.substring(0, content.length() - 3);
+        }
+        return content.trim();
+    }
+
+    // CDATA 缺少 ]]> 时，以后面紧跟下一个文件块的 </file> 作为结束
+    private int unclosedCdataEnd(int from, int to) {
+        int i = buffer.indexOf(closeTag, from);
+        while (i >= 0 && i < to) {
+            int next = skipSpace(i + closeTag.length());
+            if (indexOfOpen(next) == next) return i;
+            i = buffer.indexOf(closeTag, i + 1);
+        }
+        return -1;
+    }
+
+    // 查找后面跟着空白的 "<file"，排除 <file-upload> 之类的组件标签
+    private int indexOfOpen(int from) {
+        int i = from;
+        while ((i = buffer.indexOf(openTag, i)) >= 0) {
+            int after = i + openTag.length();
+            if (after >= buffer.length()) return -1;
+            if (Character.isWhitespace(buffer.charAt(after))) return i;
+            i = after;
+        }
+        return -1;
+    }
+
+    private int skipSpace(int from) {
+        int i = from;
+        while (i < buffer.length() && Character.isWhitespace(buffer.charAt(i))) i++;
+        return i;
+    }
+
+    private boolean regionMatches(int offset, String text) {
+        if (offset + text.length() > buffer.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.charAt(offset + i) != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static String attribute(String tag, String name) {
+        int i = tag.indexOf(name + "=");
+        if (i < 0) return null;
+        i += name.length() + 1;
+        if (i >= tag.length()) return null;
+        char quote = tag.charAt(i);
+        if (quote != '"' && quote != '\'') return null;
+        int end = tag.indexOf(quote, i + 1);
+        return end < 0 ? null : tag.substring(i + 1, end);
+    }
+}
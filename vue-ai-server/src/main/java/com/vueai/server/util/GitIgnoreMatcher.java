@@ -0,0 +1,262 @@
+package com.vueai.server.util;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的 .gitignore 规则：支持注释与转义、! 取反、目录规则（结尾 /）、锚定规则（含 /）以及 **。
+ * 规则按 git 的语义以最后一条匹配的规则为准，父目录被忽略时其中的文件无法再被取反规则恢复；
+ * 子目录中的 .gitignore 只作用于该目录，且优先级高于上级目录。
+ * 纯文本规则与 *.ext 规则放入哈希表直接查找，只有其余的通配规则才逐条做正则匹配
+ */
+public class GitIgnoreMatcher {
+
+    private static final GitIgnoreMatcher EMPTY = new GitIgnoreMatcher(Collections.emptyMap());
+
+    private final List<Rule> rules = new ArrayList<>();
+    // 不含 / 的纯文本规则：文件名 -> 规则序号（升序）
+    private final Map<String, List<Integer>> names = new HashMap<>();
+    // 含 / 的纯文本规则：完整路径 -> 规则序号
+    private final Map<String, List<Integer>> paths = new HashMap<>();
+    // *.ext 规则：后缀（含点）-> 规则序号
+    private final Map<String, List<Integer>> suffixes = new HashMap<>();
+    // 其余需要正则匹配的规则序号
+    private final List<Integer> globs = new ArrayList<>();
+
+    /**
+     * @param ignoreFiles .gitignore 所在目录（根目录为""）-> 文件内容
+     */
+    private GitIgnoreMatcher(Map<String, String> ignoreFiles) {
+        List<String> dirs = new ArrayList<>(ignoreFiles.keySet());
+        // 上级目录的规则在前，子目录的规则在后，从而优先级更高
+        dirs.sort(Comparator.comparingInt((String dir) -> dir.isEmpty() ? 0 : dir.split("/").length).thenComparing(dir -> dir));
+        for (String dir : dirs) {
+            String content = ignoreFiles.get(dir);
+            if (content == null) continue;
+            for (String line : content.split("\n")) {
+                Rule rule = Rule.parse(line, dir);
+                if (rule != null) add(rule);
+            }
+        }
+    }
+
+    public static GitIgnoreMatcher compile(String content) {
+        return content == null || content.isEmpty() ? EMPTY : new GitIgnoreMatcher(Collections.singletonMap("", content));
+    }
+
+    public static GitIgnoreMatcher compile(Map<String, String> ignoreFiles) {
+        return ignoreFiles.isEmpty() ? EMPTY : new GitIgnoreMatcher(ignoreFiles);
+    }
+
+    /**
+     * 从项目文件（路径 -> 内容）中收集所有 .gitignore 并编译
+     */
+    public static GitIgnoreMatcher fromFiles(Map<String, String> files) {
+        Map<String, String> ignoreFiles = new HashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            if (path.equals(".gitignore")) {
+                ignoreFiles.put("", file.getValue());
+            } else if (path.endsWith("/.gitignore")) {
+                ignoreFiles.put(path.substring(0, path.length() - "/.gitignore".length()), file.getValue());
+            }
+        }
+        return compile(ignoreFiles);
+    }
+
+    private void add(Rule rule) {
+        int index = rules.size();
+        rules.add(rule);
+        if (rule.regex == null && rule.suffix == null) {
+            if (rule.anchored) {
+                paths.computeIfAbsent(rule.base.isEmpty() ? rule.pattern : rule.base + "/" + rule.pattern, k -> new ArrayList<>()).add(index);
+            } else {
+                names.computeIfAbsent(rule.pattern, k -> new ArrayList<>()).add(index);
+            }
+        } else if (rule.suffix != null) {
+            suffixes.computeIfAbsent(rule.suffix, k -> new ArrayList<>()).add(index);
+        } else {
+            globs.add(index);
+        }
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public boolean isIgnored(String path) {
+        return matchingRule(path) != null;
+    }
+
+    /**
+     * 路径（相对项目根目录的文件路径）被忽略时返回决定忽略的规则原文，否则返回null
+     */
+    public String matchingRule(String path) {
+        if (rules.isEmpty() || path == null || path.isEmpty()) return null;
+        // 依次检查各级父目录，父目录被忽略则文件一定被忽略
+        int slash = path.indexOf('/');
+        while (slash > 0) {
+            Rule rule = decide(path.substring(0, slash), true);
+            if (rule != null && !rule.negated) return rule.source;
+            slash = path.indexOf('/', slash + 1);
+        }
+        Rule rule = decide(path, false);
+        return rule != null && !rule.negated ? rule.source : null;
+    }
+
+    // 返回对该路径生效的最后一条规则
+    private Rule decide(String path, boolean isDir) {
+        int slash = path.lastIndexOf('/');
+        String name = path.substring(slash + 1);
+
+        int best = last(names.get(name), path, isDir, -1);
+        best = last(paths.get(path), path, isDir, best);
+        for (int dot = name.indexOf('.'); dot >= 0; dot = name.indexOf('.', dot + 1)) {
+            best = last(suffixes.get(name.substring(dot)), path, isDir, best);
+        }
+        for (int i = globs.size() - 1; i >= 0; i--) {
+            int index = globs.get(i);
+            if (index <= best) break;
+            Rule rule = rules.get(index);
+            if (rule.applies(path, isDir) && rule.regex.matcher(rule.anchored ? rule.relative(path) : name).matches()) {
+                best = index;
+                break;
+            }
+        }
+        return best >= 0 ? rules.get(best) : null;
+    }
+
+    private int last(List<Integer> candidates, String path, boolean isDir, int best) {
+        if (candidates == null) return best;
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            int index = candidates.get(i);
+            if (index <= best) return best;
+            if (rules.get(index).applies(path, isDir)) return index;
+        }
+        return best;
+    }
+
+    private static class Rule {
+        String source;
+        // .gitignore 所在目录，根目录为""
+        String base;
+        String pattern;
+        boolean negated;
+        boolean dirOnly;
+        // 含 / 的规则相对 base 匹配完整路径，否则只匹配文件名
+        boolean anchored;
+        // *.ext 规则的后缀
+        String suffix;
+        // 含通配符的规则，纯文本规则为null
+        Pattern regex;
+
+        static Rule parse(String line, String base) {
+            String text = trimTrailing(line);
+            if (text.isEmpty() || text.startsWith("#")) return null;
+
+            Rule rule = new Rule();
+            rule.source = text;
+            rule.base = base;
+            if (text.startsWith("!")) {
+                rule.negated = true;
+                text = text.substring(1);
+            } else if (text.startsWith("\\!") || text.startsWith("\\#")) {
+                text = text.substring(1);
+            }
+            if (text.endsWith("/")) {
+                rule.dirOnly = true;
+                text = text.substring(0, text.length() - 1);
+            }
+            if (text.isEmpty()) return null;
+            rule.anchored = text.indexOf('/') >= 0;
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            rule.pattern = text;
+
+            if (!hasWildcard(text)) {
+                return rule;
+            }
+            if (!rule.anchored && text.startsWith("*.") && !hasWildcard(text.substring(1))) {
+                rule.suffix = text.substring(1);
+                return rule;
+            }
+            rule.regex = Pattern.compile(toRegex(text));
+            return rule;
+        }
+
+        boolean applies(String path, boolean isDir) {
+            if (dirOnly && !isDir) return false;
+            return base.isEmpty() || path.startsWith(base + "/");
+        }
+
+        String relative(String path) {
+            return base.isEmpty() ? path : path.substring(base.length() + 1);
+        }
+
+        // 去掉行尾未转义的空白
+        private static String trimTrailing(String line) {
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+                if (end > 1 && line.charAt(end - 2) == '\\' && line.charAt(end - 1) == ' ') break;
+                end--;
+            }
+            return line.substring(0, end);
+        }
+
+        private static boolean hasWildcard(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '*' || c == '?' || c == '[' || c == '\\') return true;
+            }
+            return false;
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int i = 0;
+            int n = glob.length();
+            while (i < n) {
+                char c = glob.charAt(i);
+                if (i == 0 && glob.startsWith("**/")) {
+                    regex.append("(?:.*/)?");
+                    i += 3;
+                } else if (c == '/' && glob.startsWith("/**/", i)) {
+                    regex.append("/(?:.*/)?");
+                    i += 4;
+                } else if (c == '/' && i + 3 == n && glob.startsWith("/**", i)) {
+                    regex.append("/.*");
+                    i += 3;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                    while (i < n && glob.charAt(i) == '*') i++;
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                    i++;
+                } else if (c == '[') {
+                    int close = glob.indexOf(']', i + 2);
+                    if (close < 0) {
+                        regex.append("\\[");
+                        i++;
+                        continue;
+                    }
+                    String body = glob.substring(i + 1, close);
+                    regex.append('[');
+                    if (body.startsWith("!") || body.startsWith("^")) {
+                        regex.append('^');
+                        body = body.substring(1);
+                    }
+                    regex.append(body.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = close + 1;
+                } else if (c == '\\' && i + 1 < n) {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                    i += 2;
+                } else {
+                    regex.append(Character.isLetterOrDigit(c) ? String.valueOf(c) : Pattern.quote(String.valueOf(c)));
+                    i++;
+                }
+            }
+            return regex.toString();
+        }
+    }
+}
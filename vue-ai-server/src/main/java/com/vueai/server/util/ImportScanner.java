@@ -0,0 +1,216 @@
+package com.vueai.server.util;
+
+import java.util.*;
+
+/**
+ * 单次扫描提取源码中的模块说明符：import x from 'a'、import 'a'、import('a')、require('a')、export ... from 'a'。
+ * 跳过注释、字符串和模板字符串中的内容；.vue/.html 文件只扫描 &lt;script&gt; 块
+ */
+public class ImportScanner {
+
+    private final String text;
+    private int pos;
+    private final int end;
+    private final Set<String> result;
+
+    private ImportScanner(String text, int start, int end, Set<String> result) {
+        this.text = text;
+        this.pos = start;
+        this.end = end;
+        this.result = result;
+    }
+
+    public static Set<String> scan(String path, String content) {
+        Set<String> result = new LinkedHashSet<>();
+        if (content == null || content.isEmpty()) return result;
+        if (path.endsWith(".vue") || path.endsWith(".html")) {
+            int from = 0;
+            while ((from = content.indexOf("<script", from)) >= 0) {
+                int open = content.indexOf('>', from);
+                if (open < 0) break;
+                int close = content.indexOf("</script>", open);
+                if (close < 0) close = content.length();
+                new ImportScanner(content, open + 1, close, result).run();
+                from = close;
+            }
+        } else if (isScript(path)) {
+            new ImportScanner(content, 0, content.length(), result).run();
+        }
+        return result;
+    }
+
+    public static boolean isScript(String path) {
+        return path.endsWith(".ts") || path.endsWith(".tsx") || path.endsWith(".js") || path.endsWith(".jsx")
+            || path.endsWith(".mjs") || path.endsWith(".cjs") || path.endsWith(".mts");
+    }
+
+    public static boolean isLocal(String specifier) {
+        return specifier.startsWith(".") || specifier.startsWith("/") || specifier.startsWith("@/") || specifier.startsWith("~/");
+    }
+
+    /**
+     * 说明符对应的npm包名（@scope/name 或 name），本地路径、node内置模块、虚拟模块和URL返回null
+     */
+    public static String packageName(String specifier) {
+        if (specifier.isEmpty() || isLocal(specifier) || specifier.startsWith("~") || specifier.startsWith("#")
+                || specifier.contains(":")) {
+            return null;
+        }
+        String[] parts = specifier.split("/");
+        if (specifier.startsWith("@")) {
+            return parts.length >= 2 ? parts[0] + "/" + parts[1] : null;
+        }
+        return parts[0];
+    }
+
+    private void run() {
+        // 处于 import/export 语句中，遇到 from '...' 时记录
+        boolean clause = false;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '/' && skipComment()) {
+                continue;
+            }
+            if (c == '\'' || c == '"') {
+                readString();
+                continue;
+            }
+            if (c == '`') {
+                skipTemplate();
+                continue;
+            }
+            if (c == ';') {
+                clause = false;
+                pos++;
+                continue;
+            }
+            if (!Character.isJavaIdentifierStart(c)) {
+                pos++;
+                continue;
+            }
+
+            int start = pos;
+            while (pos < end && Character.isJavaIdentifierPart(text.charAt(pos))) pos++;
+            // obj.import / obj.require 之类的属性访问不是导入
+            if (start > 0 && text.charAt(start - 1) == '.') continue;
+            String word = text.substring(start, pos);
+
+            switch (word) {
+                case "import": {
+                    skipSpace();
+                    if (pos >= end) break;
+                    char next = text.charAt(pos);
+                    if (next == '(') {
+                        pos++;
+                        skipSpace();
+                        addString();
+                    } else if (next == '\'' || next == '"') {
+                        addString();
+                    } else if (next != '.') {
+                        clause = true;
+                    }
+                    break;
+                }
+                case "export":
+                    clause = true;
+                    break;
+                case "require":
+                    skipSpace();
+                    if (pos < end && text.charAt(pos) == '(') {
+                        pos++;
+                        skipSpace();
+                        addString();
+                    }
+                    break;
+                case "from":
+                    if (clause) {
+                        skipSpace();
+                        if (addString()) clause = false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // 当前位置是字符串时读取并记录
+    private boolean addString() {
+        if (pos >= end) return false;
+        char c = text.charAt(pos);
+        if (c != '\'' && c != '"') return false;
+        String value = readString();
+        if (value == null || value.isEmpty()) return false;
+        result.add(value);
+        return true;
+    }
+
+    // 读取单/双引号字符串，未在行内闭合时返回null
+    private String readString() {
+        char quote = text.charAt(pos++);
+        StringBuilder sb = null;
+        int start = pos;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == quote) {
+                String value = sb != null ? sb.toString() : text.substring(start, pos);
+                pos++;
+                return value;
+            }
+            if (c == '\n') {
+                return null;
+            }
+            if (c == '\\' && pos + 1 < end) {
+                if (sb == null) sb = new StringBuilder(text.substring(start, pos));
+                sb.append(text.charAt(pos + 1));
+                pos += 2;
+                continue;
+            }
+            if (sb != null) sb.append(c);
+            pos++;
+        }
+        return null;
+    }
+
+    private void skipTemplate() {
+        pos++;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+                continue;
+            }
+            pos++;
+            if (c == '`') return;
+        }
+    }
+
+    private boolean skipComment() {
+        if (pos + 1 >= end) return false;
+        char next = text.charAt(pos + 1);
+        if (next == '/') {
+            int newline = text.indexOf('\n', pos);
+            pos = newline < 0 || newline > end ? end : newline + 1;
+            return true;
+        }
+        if (next == '*') {
+            int close = text.indexOf("*/", pos + 2);
+            pos = close < 0 || close + 2 > end ? end : close + 2;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpace() {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '/' && skipComment()) {
+                // 说明符前的注释，如 import(/* webpackChunkName */ './a')
+            } else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.vueai.server.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 基于 JsonParser 的按路径流式读取：只取出需要的字段，其余部分直接跳过，不构建 Map/树。
+ * 解析缓冲区由 Jackson 的 BufferRecycler 按线程复用
+ */
+public class JsonStreamReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static JsonParser parser(InputStream in) throws IOException {
+        return JSON_FACTORY.createParser(in);
+    }
+
+    public static JsonParser parser(String json) throws IOException {
+        return JSON_FACTORY.createParser(json);
+    }
+
+    /**
+     * 从文档根开始沿路径移动到目标对象，"[0]" 表示数组首元素；路径不存在时返回false
+     */
+    public static boolean seek(JsonParser parser, String... path) throws IOException {
+        JsonToken token = parser.nextToken();
+        for (String step : path) {
+            if ("[0]".equals(step)) {
+                if (token != JsonToken.START_ARRAY) return false;
+                token = parser.nextToken();
+                if (token == null || token == JsonToken.END_ARRAY) return false;
+                continue;
+            }
+
+            if (token != JsonToken.START_OBJECT) return false;
+            boolean found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                token = parser.nextToken();
+                if (step.equals(name)) {
+                    found = true;
+                    break;
+                }
+                parser.skipChildren();
+            }
+            if (!found) return false;
+        }
+        return token == JsonToken.START_OBJECT;
+    }
+
+    /**
+     * 读取当前对象中的字符串字段，按参数顺序返回第一个非空值
+     */
+    public static String firstText(JsonParser parser, String... fields) throws IOException {
+        String[] values = new String[fields.length];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            int index = indexOf(fields, name);
+            if (index >= 0 && token == JsonToken.VALUE_STRING) {
+                values[index] = parser.getText();
+                if (index == 0) break;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        for (String value : values) {
+            if (value != null) return value;
+        }
+        return null;
+    }
+
+    private static int indexOf(String[] fields, String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,98 @@
+package com.vueai.server.util;
+
+/**
+ * 单遍移除Markdown代码块标记（``` 及其后的语言标记与空白），并去除首尾空白。
+ * 既可一次处理完整文本，也可以按流式增量逐段喂入，跨段的 ``` 也能正确识别
+ */
+public class MarkdownFenceStripper {
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int SKIP_SPACE = 2;
+
+    private int state = TEXT;
+    private int ticks;
+    private boolean started;
+    // 暂存的空白：后面出现非空白字符时才输出，以便去除结尾空白
+    private final StringBuilder pendingSpace = new StringBuilder();
+
+    public static String strip(String content) {
+        if (content == null) return "";
+        if (content.indexOf("```") < 0) return content.trim();
+        MarkdownFenceStripper stripper = new MarkdownFenceStripper();
+        StringBuilder out = new StringBuilder(content.length());
+        stripper.feed(content, out);
+        stripper.finish(out);
+        return out.toString();
+    }
+
+    /**
+     * 喂入一段增量，返回可以立即输出的清理后文本（可能为空）
+     */
+    public String feed(String chunk) {
+        StringBuilder out = new StringBuilder(chunk.length());
+        feed(chunk, out);
+        return out.toString();
+    }
+
+    /**
+     * 输入结束，返回尚未输出的剩余文本
+     */
+    public String finish() {
+        StringBuilder out = new StringBuilder();
+        finish(out);
+        return out.toString();
+    }
+
+    private void feed(CharSequence chunk, StringBuilder out) {
+        for (int i = 0, n = chunk.length(); i < n; i++) {
+            char c = chunk.charAt(i);
+            if (state == TAG) {
+                if (isTagChar(c)) continue;
+                state = SKIP_SPACE;
+            }
+            if (state == SKIP_SPACE) {
+                if (c <= ' ') continue;
+                state = TEXT;
+            }
+            if (c == '`') {
+                if (++ticks == 3) {
+                    ticks = 0;
+                    state = TAG;
+                }
+                continue;
+            }
+            flushTicks(out);
+            emit(c, out);
+        }
+    }
+
+    private void finish(StringBuilder out) {
+        flushTicks(out);
+        pendingSpace.setLength(0);
+    }
+
+    private void flushTicks(StringBuilder out) {
+        for (; ticks > 0; ticks--) {
+            emit('`', out);
+        }
+    }
+
+    private void emit(char c, StringBuilder out) {
+        if (c <= ' ') {
+            if (started) pendingSpace.append(c);
+            return;
+        }
+        if (pendingSpace.length() > 0) {
+            out.append(pendingSpace);
+            pendingSpace.setLength(0);
+        }
+        out.append(c);
+        started = true;
+    }
+
+    // 代码块语言标记，如 vue、typescript、c++、objective-c
+    private static boolean isTagChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '#' || c == '.' || c == '_';
+    }
+}
@@ -0,0 +1,135 @@
+package com.vueai.server.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vueai.server.model.ProjectTree;
+
+import java.util.*;
+
+/**
+ * 解析后的项目内容：项目树、路径 -> 内容、渲染好的目录结构、导入关系图、package.json 依赖以及编译后的 .gitignore 规则。
+ * 实例会在缓存中被多个请求共享，所有内容只读，需要修改树时使用 copyTree
+ */
+public class ParsedProject {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ProjectTree tree;
+    // 内容是否为树形结构（可直接在其上合并并保存），前端传来的 flat map 为false
+    private final boolean treeShaped;
+    // 路径 -> 文件内容，按深度优先顺序
+    private final Map<String, String> files;
+    private final String structure;
+    private final String packageJson;
+    // package.json 中声明的全部依赖包名
+    private final Set<String> dependencies;
+    private final ProjectImportGraph importGraph;
+    private final GitIgnoreMatcher ignoreMatcher;
+    private final int weight;
+    // 目录结构与全部文件内容的估算token数
+    private final int tokens;
+
+    @SuppressWarnings("unchecked")
+    private ParsedProject(ProjectTree tree, boolean treeShaped) {
+        this.tree = tree;
+        this.treeShaped = treeShaped;
+        this.files = Collections.unmodifiableMap(tree.toFlatMap());
+        this.structure = tree.renderStructure();
+
+        this.ignoreMatcher = GitIgnoreMatcher.fromFiles(files);
+        this.packageJson = tree.findFileContent("package.json");
+        Set<String> deps = null;
+        if (packageJson != null) {
+            try {
+                Map<String, Object> pkg = objectMapper.readValue(packageJson, new TypeReference<Map<String, Object>>(){});
+                deps = new HashSet<>();
+                for (String field : Arrays.asList("dependencies", "devDependencies", "peerDependencies", "optionalDependencies")) {
+                    if (pkg.get(field) instanceof Map) {
+                        deps.addAll(((Map<String, Object>) pkg.get(field)).keySet());
+                    }
+                }
+            } catch (Exception e) {
+                // package.json 无法解析时不做依赖检查
+            }
+        }
+        this.dependencies = deps == null ? null : Collections.unmodifiableSet(deps);
+        this.importGraph = ProjectImportGraph.build(files);
+
+        long chars = structure.length();
+        long estimated = PromptContextBuilder.estimateTokens(structure);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            chars += file.getKey().length() + file.getValue().length();
+            estimated += PromptContextBuilder.estimateTokens(file.getValue());
+        }
+        this.weight = (int) Math.min(Integer.MAX_VALUE, chars);
+        this.tokens = (int) Math.min(Integer.MAX_VALUE, estimated);
+    }
+
+    /**
+     * 解析项目内容：JSON字符串（flat map 或树形列表）、flat map 或已解析的树形列表
+     */
+    public static ParsedProject parse(Object contentObj) throws Exception {
+        boolean treeShaped = contentObj instanceof List
+            || contentObj instanceof String && !((String) contentObj).trim().startsWith("{");
+        return new ParsedProject(ProjectTree.of(contentObj), treeShaped);
+    }
+
+    // 已构建好的树，例如刚保存的项目内容；此后不能再修改 tree
+    public static ParsedProject of(ProjectTree tree) {
+        return new ParsedProject(tree, true);
+    }
+
+    // 共享的项目树，只读
+    public ProjectTree getTree() {
+        return tree;
+    }
+
+    public String findFileContent(String fileName) {
+        return tree.findFileContent(fileName);
+    }
+
+    // 树的副本，缓存中的实例是共享的，修改前必须复制
+    public ProjectTree copyTree() {
+        return tree.copy();
+    }
+
+    public boolean isTreeShaped() {
+        return treeShaped;
+    }
+
+    public Map<String, String> getFiles() {
+        return files;
+    }
+
+    public String getStructure() {
+        return structure;
+    }
+
+    public String getPackageJson() {
+        return packageJson;
+    }
+
+    // package.json 中 dependencies/devDependencies/peerDependencies/optionalDependencies 的包名，没有或无法解析 package.json 时为null
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+
+    public ProjectImportGraph getImportGraph() {
+        return importGraph;
+    }
+
+    // 项目中所有 .gitignore 编译后的规则，可供导出、对比等需要过滤忽略文件的地方复用
+    public GitIgnoreMatcher getIgnoreMatcher() {
+        return ignoreMatcher;
+    }
+
+    // 缓存权重：文件路径与内容的字符数
+    public int getWeight() {
+        return weight;
+    }
+
+    // 完整放入提示词所需的估算token数
+    public int getTokens() {
+        return tokens;
+    }
+}
@@ -0,0 +1,109 @@
+package com.vueai.server.util;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 项目导入关系图：每个源文件导入的项目内文件、被哪些文件导入、引用的npm包，以及无法解析的本地导入
+ */
+public class ProjectImportGraph {
+
+    private static final String[] EXTENSIONS = {"", ".ts", ".js", ".vue", ".tsx", ".jsx", "/index.ts", "/index.js", "/index.vue"};
+
+    private final Map<String, List<String>> imports = new HashMap<>();
+    private final Map<String, List<String>> importedBy = new HashMap<>();
+    private final Map<String, Set<String>> packages = new HashMap<>();
+    private final Map<String, List<String>> unresolved = new HashMap<>();
+
+    public static ProjectImportGraph build(Map<String, String> files) {
+        ProjectImportGraph graph = new ProjectImportGraph();
+        Predicate<String> exists = files::containsKey;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            for (String specifier : ImportScanner.scan(path, file.getValue())) {
+                graph.add(path, specifier, exists);
+            }
+        }
+        return graph;
+    }
+
+    private void add(String path, String specifier, Predicate<String> exists) {
+        if (ImportScanner.isLocal(specifier)) {
+            String target = resolve(path, specifier, exists);
+            if (target != null) {
+                imports.computeIfAbsent(path, k -> new ArrayList<>()).add(target);
+                importedBy.computeIfAbsent(target, k -> new ArrayList<>()).add(path);
+            } else {
+                unresolved.computeIfAbsent(path, k -> new ArrayList<>()).add(specifier);
+            }
+            return;
+        }
+        String pkg = ImportScanner.packageName(specifier);
+        if (pkg != null) {
+            packages.computeIfAbsent(path, k -> new LinkedHashSet<>()).add(pkg);
+        }
+    }
+
+    /**
+     * 把本地导入（相对路径、@/ 或 ~/ 别名、/ 开头）解析为项目内的文件路径，按常见扩展名和 index 文件补全，不存在时返回null
+     */
+    public static String resolve(String from, String specifier, Predicate<String> exists) {
+        String target;
+        if (specifier.startsWith("@/") || specifier.startsWith("~/")) {
+            target = normalize(specifier.substring(2));
+        } else if (specifier.startsWith("/")) {
+            target = normalize(specifier.substring(1));
+        } else {
+            String dir = from.contains("/") ? from.substring(0, from.lastIndexOf('/')) : "";
+            target = normalize(dir.isEmpty() ? specifier : dir + "/" + specifier);
+        }
+        // 去掉 ?raw 之类的查询参数
+        int query = target.indexOf('?');
+        if (query >= 0) target = target.substring(0, query);
+        for (String extension : EXTENSIONS) {
+            if (exists.test(target + extension)) {
+                return target + extension;
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String path) {
+        Deque<String> parts = new ArrayDeque<>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".")) continue;
+            if (part.equals("..")) {
+                parts.pollLast();
+            } else {
+                parts.addLast(part);
+            }
+        }
+        return String.join("/", parts);
+    }
+
+    // 文件导入的项目内文件
+    public List<String> getImports(String path) {
+        return imports.getOrDefault(path, Collections.emptyList());
+    }
+
+    public List<String> getImportedBy(String path) {
+        return importedBy.getOrDefault(path, Collections.emptyList());
+    }
+
+    public Set<String> getPackages(String path) {
+        return packages.getOrDefault(path, Collections.emptySet());
+    }
+
+    // 整个项目引用到的npm包
+    public Set<String> getAllPackages() {
+        Set<String> all = new TreeSet<>();
+        for (Set<String> used : packages.values()) {
+            all.addAll(used);
+        }
+        return all;
+    }
+
+    public Map<String, List<String>> getUnresolved() {
+        return Collections.unmodifiableMap(unresolved);
+    }
+}
@@ -0,0 +1,242 @@
+package com.vueai.server.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按token预算构建提示词中的项目上下文：目录结构、依赖，以及按与需求的相关度排序的文件内容/摘要。
+ * 相关度由路径、标识符与需求关键词的匹配度计算，并沿项目导入关系图向相邻文件传播
+ */
+public class PromptContextBuilder {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final Pattern WORD = Pattern.compile("[A-Za-z][A-Za-z0-9]*");
+    private static final Pattern CAMEL_SPLIT = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])");
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+        "the", "and", "for", "with", "add", "new", "use", "create", "make", "into", "from", "this", "that", "please"
+    ));
+
+    // 常见中文需求词对应的代码命名
+    private static final Map<String, List<String>> CJK_TERMS = new LinkedHashMap<>();
+    static {
+        CJK_TERMS.put("登录", Arrays.asList("login", "auth"));
+        CJK_TERMS.put("注册", Arrays.asList("register", "signup"));
+        CJK_TERMS.put("用户", Arrays.asList("user"));
+        CJK_TERMS.put("列表", Arrays.asList("list", "table"));
+        CJK_TERMS.put("表格", Arrays.asList("table"));
+        CJK_TERMS.put("表单", Arrays.asList("form"));
+        CJK_TERMS.put("路由", Arrays.asList("router", "route"));
+        CJK_TERMS.put("首页", Arrays.asList("home", "index"));
+        CJK_TERMS.put("设置", Arrays.asList("setting", "settings", "config"));
+        CJK_TERMS.put("接口", Arrays.asList("api", "request"));
+        CJK_TERMS.put("状态", Arrays.asList("store", "state"));
+        CJK_TERMS.put("图表", Arrays.asList("chart", "echarts"));
+        CJK_TERMS.put("菜单", Arrays.asList("menu", "nav"));
+        CJK_TERMS.put("导航", Arrays.asList("nav", "menu", "header"));
+        CJK_TERMS.put("弹窗", Arrays.asList("modal", "dialog"));
+        CJK_TERMS.put("上传", Arrays.asList("upload"));
+        CJK_TERMS.put("搜索", Arrays.asList("search"));
+        CJK_TERMS.put("详情", Arrays.asList("detail"));
+        CJK_TERMS.put("布局", Arrays.asList("layout"));
+        CJK_TERMS.put("样式", Arrays.asList("style", "css", "theme"));
+    }
+
+    private static final int MAX_FILE_CHARS = 100_000;
+    private static final int SUMMARY_LINES = 20;
+
+    /**
+     * 粗略估算token数：ASCII按4字符/token，其他字符（中文等）按1字符/token
+     */
+    public static int estimateTokens(String text) {
+        if (text == null) return 0;
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 128) ascii++; else other++;
+        }
+        return ascii / 4 + other + 1;
+    }
+
+    public static String build(Map<String, String> files, ProjectImportGraph graph, String structure, String dependencies, String requirement, int budget) {
+        StringBuilder sb = new StringBuilder();
+        int remaining = budget;
+
+        // 1. 目录结构：超过预算的30%时只保留目录
+        String tree = structure != null ? structure : "";
+        if (estimateTokens(tree) > budget * 3 / 10) {
+            tree = directorySummary(files.keySet());
+        }
+        sb.append("项目目录结构：\n").append(tree).append("\n\n");
+        remaining -= estimateTokens(tree);
+
+        // 2. 依赖：超过预算的15%时只保留依赖名和版本
+        String deps = dependencies != null ? dependencies : "";
+        if (estimateTokens(deps) > budget * 15 / 100) {
+            deps = compactDependencies(deps);
+        }
+        sb.append("项目依赖(package.json)：\n").append(deps).append("\n\n");
+        remaining -= estimateTokens(deps);
+
+        // 3. 相关文件：按相关度依次放入完整内容，放不下时退化为摘要
+        StringBuilder full = new StringBuilder();
+        StringBuilder summaries = new StringBuilder();
+        for (Map.Entry<String, Double> ranked : rank(files, graph, requirement)) {
+            if (remaining < 50) break;
+            String path = ranked.getKey();
+            String content = files.get(path);
+            String block = "--- " + path + " ---\n" + content + "\n\n";
+            int cost = estimateTokens(block);
+            if (cost <= remaining) {
+                full.append(block);
+                remaining -= cost;
+                continue;
+            }
+            String summary = "--- " + path + " ---\n" + summarize(content) + "\n\n";
+            cost = estimateTokens(summary);
+            if (cost <= remaining) {
+                summaries.append(summary);
+                remaining -= cost;
+            }
+        }
+        if (full.length() > 0) {
+            sb.append("相关文件内容：\n").append(full);
+        }
+        if (summaries.length() > 0) {
+            sb.append("相关文件摘要（仅导入、导出与声明）：\n").append(summaries);
+        }
+        return sb.toString();
+    }
+
+    // 按相关度降序返回得分大于0的文件
+    private static List<Map.Entry<String, Double>> rank(Map<String, String> files, ProjectImportGraph graph, String requirement) {
+        Set<String> terms = terms(requirement);
+        Map<String, Double> base = new HashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            String content = file.getValue();
+            if (!isSource(path, content)) continue;
+
+            double score = 0;
+            Set<String> pathWords = words(path);
+            for (String term : terms) {
+                if (pathWords.contains(term)) score += 3;
+            }
+            if (!terms.isEmpty()) {
+                Set<String> contentWords = words(content.length() > 20_000 ? content.substring(0, 20_000) : content);
+                int hits = 0;
+                for (String term : terms) {
+                    if (contentWords.contains(term)) hits++;
+                }
+                score += Math.min(5, hits);
+            }
+            // 入口文件通常都需要修改或参考
+            if (path.equals("App.vue")) score += 2;
+            if (path.equals("main.ts") || path.equals("main.js") || path.startsWith("router/index.")) score += 1;
+            base.put(path, score);
+        }
+
+        // 沿导入关系把相关度传播给一跳内的相邻文件：被相关文件导入的文件加一半分，导入了相关文件的文件加四分之一
+        Map<String, Double> scores = new HashMap<>(base);
+        for (Map.Entry<String, Double> entry : base.entrySet()) {
+            double score = entry.getValue();
+            for (String imported : graph.getImports(entry.getKey())) {
+                Double importedScore = base.get(imported);
+                if (importedScore == null) continue;
+                if (score > 0) scores.merge(imported, score * 0.5, Double::sum);
+                if (importedScore > 0) scores.merge(entry.getKey(), importedScore * 0.25, Double::sum);
+            }
+        }
+
+        List<Map.Entry<String, Double>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            if (entry.getValue() > 0) ranked.add(entry);
+        }
+        ranked.sort((a, b) -> {
+            int cmp = Double.compare(b.getValue(), a.getValue());
+            return cmp != 0 ? cmp : Integer.compare(files.get(a.getKey()).length(), files.get(b.getKey()).length());
+        });
+        return ranked;
+    }
+
+    private static boolean isSource(String path, String content) {
+        if (content == null || content.isEmpty() || content.length() > MAX_FILE_CHARS) return false;
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.equals("package.json") || name.endsWith("lock.json") || name.endsWith(".lock") || name.startsWith(".")) return false;
+        return name.matches(".*\\.(vue|ts|tsx|js|jsx|mjs|css|scss|less|json|html)$");
+    }
+
+    private static Set<String> terms(String requirement) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (requirement == null) return terms;
+        for (String word : words(requirement)) {
+            if (word.length() >= 3 && !STOP_WORDS.contains(word)) terms.add(word);
+        }
+        for (Map.Entry<String, List<String>> entry : CJK_TERMS.entrySet()) {
+            if (requirement.contains(entry.getKey())) terms.addAll(entry.getValue());
+        }
+        return terms;
+    }
+
+    // 拆分驼峰/短横线/下划线命名后的小写单词
+    private static Set<String> words(String text) {
+        Set<String> words = new HashSet<>();
+        Matcher matcher = WORD.matcher(text);
+        while (matcher.find()) {
+            String word = matcher.group();
+            words.add(word.toLowerCase());
+            for (String part : CAMEL_SPLIT.split(word)) {
+                words.add(part.toLowerCase());
+            }
+        }
+        return words;
+    }
+
+    // 文件摘要：导入、导出以及顶层声明语句
+    private static String summarize(String content) {
+        StringBuilder sb = new StringBuilder();
+        int lines = 0;
+        for (String line : content.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("import ") || trimmed.startsWith("export ") || trimmed.startsWith("function ")
+                    || trimmed.startsWith("interface ") || trimmed.startsWith("type ") || trimmed.contains("defineProps")
+                    || trimmed.contains("defineEmits") || trimmed.startsWith("<script") || trimmed.startsWith("<template")) {
+                sb.append(trimmed).append("\n");
+                if (++lines >= SUMMARY_LINES) break;
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    // 只列出目录及其中的文件数量
+    private static String directorySummary(Set<String> paths) {
+        Map<String, Integer> dirs = new TreeMap<>();
+        for (String path : paths) {
+            String dir = path.contains("/") ? path.substring(0, path.lastIndexOf('/')) + "/" : "./";
+            dirs.merge(dir, 1, Integer::sum);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : dirs.entrySet()) {
+            sb.append(entry.getKey()).append(" (").append(entry.getValue()).append(" files)\n");
+        }
+        return sb.toString();
+    }
+
+    private static String compactDependencies(String packageJson) {
+        try {
+            JsonNode pkg = objectMapper.readTree(packageJson);
+            ObjectNode compact = objectMapper.createObjectNode();
+            if (pkg.has("dependencies")) compact.set("dependencies", pkg.get("dependencies"));
+            if (pkg.has("devDependencies")) compact.set("devDependencies", pkg.get("devDependencies"));
+            return objectMapper.writeValueAsString(compact);
+        } catch (Exception e) {
+            return packageJson.length() > 2000 ? packageJson.substring(0, 2000) : packageJson;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.vueai.server.util;
+
+import java.util.*;
+
+/**
+ * 编辑模式的补丁：由若干 SEARCH/REPLACE 块组成，按顺序应用到原文件。
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; SEARCH
+ * 原文件中连续的若干行
+ * =======
+ * 替换后的内容
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt; REPLACE
+ * </pre>
+ * SEARCH 先按原文精确匹配，找不到时忽略行尾空白、再忽略缩进逐行匹配；匹配不到或匹配到多处时应用失败。
+ * SEARCH 为空表示追加到文件末尾
+ */
+public class SearchReplacePatch {
+
+    private static final String SEARCH = "<<<<<<< SEARCH";
+    private static final String DIVIDER = "=======";
+    private static final String REPLACE = ">>>>>>> REPLACE";
+
+    private final List<Hunk> hunks;
+
+    private SearchReplacePatch(List<Hunk> hunks) {
+        this.hunks = hunks;
+    }
+
+    /**
+     * 解析补丁文本，格式不完整时抛出 PatchException
+     */
+    public static SearchReplacePatch parse(String text) {
+        List<Hunk> hunks = new ArrayList<>();
+        String[] lines = text.replace("\r\n", "\n").split("\n", -1);
+        int i = 0;
+        while (i < lines.length) {
+            if (!lines[i].trim().startsWith(SEARCH)) {
+                i++;
+                continue;
+            }
+            List<String> search = new ArrayList<>();
+            List<String> replace = new ArrayList<>();
+            i++;
+            while (i < lines.length && !lines[i].trim().equals(DIVIDER)) {
+                search.add(lines[i++]);
+            }
+            if (i >= lines.length) throw new PatchException("第" + (hunks.size() + 1) + "个修改块缺少 " + DIVIDER);
+            i++;
+            while (i < lines.length && !lines[i].trim().startsWith(REPLACE)) {
+                replace.add(lines[i++]);
+            }
+            if (i >= lines.length) throw new PatchException("第" + (hunks.size() + 1) + "个修改块缺少 " + REPLACE);
+            i++;
+            hunks.add(new Hunk(trimBlankLines(search), trimBlankLines(replace)));
+        }
+        if (hunks.isEmpty()) {
+            throw new PatchException("未找到 SEARCH/REPLACE 修改块");
+        }
+        return new SearchReplacePatch(hunks);
+    }
+
+    public int size() {
+        return hunks.size();
+    }
+
+    /**
+     * 应用到原文件内容，返回修改后的完整内容
+     */
+    public String apply(String original) {
+        boolean crlf = original.contains("\r\n");
+        List<String> lines = new ArrayList<>(Arrays.asList(original.replace("\r\n", "\n").split("\n", -1)));
+        int from = 0;
+        for (int h = 0; h < hunks.size(); h++) {
+            Hunk hunk = hunks.get(h);
+            if (hunk.search.isEmpty()) {
+                // 追加到末尾：去掉原文件末尾的空行后再追加
+                int end = lines.size();
+                while (end > 0 && lines.get(end - 1).isEmpty()) end--;
+                lines.subList(end, lines.size()).clear();
+                lines.addAll(hunk.replace);
+                lines.add("");
+                from = lines.size();
+                continue;
+            }
+            int at = locate(lines, hunk.search, from, h + 1);
+            lines.subList(at, at + hunk.search.size()).clear();
+            lines.addAll(at, hunk.replace);
+            from = at + hunk.replace.size();
+        }
+        String result = String.join("\n", lines);
+        return crlf ? result.replace("\n", "\r\n") : result;
+    }
+
+    // 依次用更宽松的比较方式查找 SEARCH 的位置；优先取 from 之后唯一的匹配，否则要求整个文件中唯一
+    private static int locate(List<String> lines, List<String> search, int from, int number) {
+        for (int level = 0; level < 3; level++) {
+            List<Integer> matches = find(lines, search, level);
+            if (matches.isEmpty()) continue;
+            if (matches.size() == 1) return matches.get(0);
+            List<Integer> after = new ArrayList<>();
+            for (int match : matches) {
+                if (match >= from) after.add(match);
+            }
+            if (after.size() == 1) return after.get(0);
+            throw new PatchException("第" + number + "个修改块的 SEARCH 内容在文件中出现了 " + matches.size() + " 次，无法确定修改位置");
+        }
+        throw new PatchException("第" + number + "个修改块的 SEARCH 内容在文件中不存在: " + preview(search));
+    }
+
+    private static List<Integer> find(List<String> lines, List<String> search, int level) {
+        List<Integer> matches = new ArrayList<>();
+        String first = normalize(search.get(0), level);
+        for (int i = 0; i + search.size() <= lines.size(); i++) {
+            if (!normalize(lines.get(i), level).equals(first)) continue;
+            boolean match = true;
+            for (int j = 1; j < search.size(); j++) {
+                if (!normalize(lines.get(i + j), level).equals(normalize(search.get(j), level))) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) matches.add(i);
+        }
+        return matches;
+    }
+
+    // 0: 原样；1: 忽略行尾空白；2: 忽略首尾空白
+    private static String normalize(String line, int level) {
+        if (level == 0) return line;
+        if (level == 1) {
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) end--;
+            return line.substring(0, end);
+        }
+        return line.trim();
+    }
+
+    // 去掉首尾的空行，模型常在标记与内容之间多输出空行
+    private static List<String> trimBlankLines(List<String> lines) {
+        int start = 0;
+        int end = lines.size();
+        while (start < end && lines.get(start).trim().isEmpty()) start++;
+        while (end > start && lines.get(end - 1).trim().isEmpty()) end--;
+        return new ArrayList<>(lines.subList(start, end));
+    }
+
+    private static String preview(List<String> search) {
+        String first = search.get(0).trim();
+        return first.length() > 80 ? first.substring(0, 80) + "..." : first;
+    }
+
+    private static class Hunk {
+        final List<String> search;
+        final List<String> replace;
+
+        Hunk(List<String> search, List<String> replace) {
+            this.search = search;
+            this.replace = replace;
+        }
+    }
+
+    public static class PatchException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public PatchException(String message) {
+            super(message);
+        }
+    }
+}